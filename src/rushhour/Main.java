@@ -18,17 +18,38 @@ import java.nio.file.Path;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 public class Main {
 	private static final String usage =
 		"Usage: java rushhour.Main [OPERATION] [ARGUMENTS]\n" + 
 		"Supported operations:\n" +
 		"    info <puzzle_file>                                                                       print information about a board (ascii repr, depth, graph size, # solutions)\n" +
-		"    solve <puzzle_file> [ --equiv | --ids | --bfs ] <puzzle_file>                            solve a board using an uninformed search, and give info about the solve\n" +
+		"    info <puzzle_file> --external <work_dir>                                                 same, but keep the graph on disk under work_dir instead of in memory\n" +
+		"    solve <puzzle_file> [ --equiv | --ids | --bfs | --bidir ] <puzzle_file>                  solve a board using an uninformed search, and give info about the solve\n" +
 		"    solve <puzzle_file> --astar --features <features> --weights <weights>                    solve a board using an informed search, comma-separated weight vector\n" +
 		"    solve <puzzle_file> --astar --features <features> --weightsFile <weights_file>           solve a board using an informed search, weights from a file\n" +
+		"    solve <puzzle_file> --idastar --features <features> --weights <weights>                  solve a board using IDA*, in fixed memory\n" +
+		"    solve <puzzle_file> --anytime --features <features> --weights <weights> [ --timeLimit MS ] weighted A*: quick first solution, improved toward optimal until done or out of time\n" +
+		"        [ --hCache N ]                                                                       remember up to N heuristic values by state during an informed search\n" +
+		"        [ --threads N ]                                                                      run A* on N threads, each owning a share of the states\n" +
+		"        [ --maxExpansions N ] [ --maxOpen N ] [ --timeBudget MS ]                            (any solver) give up after N expansions, N queued states or MS milliseconds\n" +
+		"        [ --tableSize N ]                                                                    (IDA*) keep N transposition table slots of 24 bytes, default 131072; split among solve-batch's workers\n" +
+		"        [ --timePhases ] [ --json ]                                                          (any solver) split time into phases; print the result and stats as a JSON line first\n" +
+		"    solve-batch <puzzle_dir> [ <solver> [ <solver options> ] ] [ --workers N ]               solve every puzzle under a directory on N workers, one CSV row per puzzle\n" +
+		"    solve-batch <puzzle_dir> --byClass                                                       solve every puzzle under a directory, building each equivalence class only once\n" +
 		"    test <dataset>  <features> <weightsFile>                                                 test a heuristic on a given dataset, weights from cli\n" +
 		"    learn <dataset> --features <features> [ --outFile <weights_file> ] [LEARNING_OPTIONS]    learn a weight vector using the given features, and possibly write to a file\n" +
+		"    audit-hashes <puzzle_dir>                                                                check state hashes for collisions over every equivalence class in a corpus\n" +
+		"    build-depth-db <db_file> [ --maxCars N ]                                                 enumerate every solvable 6x6 board (with at most N cars) into a depth database\n" +
+		"    (run with -Drushhour.depthdb=<db_file> to let info, solve --equiv and learning look boards up in a depth database)\n" +
+		"    (run with -Drushhour.solutioncache=<cache_file> to have solve and solve-batch reuse optimal solutions from earlier runs)\n" +
+		"    (run with -Drushhour.classcache.states=N to keep up to N states' worth of equivalence classes for reuse, default 2097152)\n" +
+		"    (run with -Drushhour.external=<work_dir> to have info, generate and learning build equivalence classes on disk under work_dir)\n" +
 		"Learning Options: \n" +
 		"    --regularize                                                                             use regularization\n" +
 		"    --learningRate ALPHA                                                                     use the given learning rate 0<a<1. default is 0.1.\n" +
@@ -44,61 +65,77 @@ public class Main {
 				puzzleFile = args[1];
 				Board board = BoardIO.read(puzzleFile);
 				System.out.println("board:\n" + board.toString());
-				EquivalenceClass graph = board.getEquivalenceClass();
+				DepthGraph graph;
+				if(args.length == 4 && args[2].equals("--external")) {
+					graph = new ExternalEquivalenceClass(board, new File(args[3]));
+				} else {
+					DepthDatabase database = DepthDatabase.getDefault();
+					if(database != null && database.contains(board)) {
+						System.err.println("board depth: " + database.getDepthOfBoard(board));
+						return;
+					}
+					graph = DepthGraph.of(board);
+				}
 				System.err.println("graph size: " + graph.size());
 				System.err.println("graph depth: " + graph.maxDepth());
 				System.err.println("board depth: " + graph.getDepthOfBoard(board));
-				System.err.println("graph solutions: " + graph.solutions().size());
+				System.err.println("graph solutions: " + graph.numSolutions());
+				graph.release();
 			} else if(operation.equals("solve")) {
+				long[] budget = new long[4];
+				args = takeBudget(args, budget);
+				boolean json = false;
+				boolean timePhases = false;
+				List<String> rest = new ArrayList<>();
+				for(String arg : args) {
+					if(arg.equals("--json")) {
+						json = true;
+					} else if(arg.equals("--timePhases")) {
+						timePhases = true;
+					} else {
+						rest.add(arg);
+					}
+				}
+				args = rest.toArray(new String[0]);
 				Solver solver = null;
 				if(args.length == 2) {
 					puzzleFile = args[1];
-					solver = new BreadthFirstSearchSolver();
+					solver = withSolutionCache(BreadthFirstSearchSolver::new, true).get();
 				} else if(args.length >= 3) {
-					if(args[1].equals("--equiv")) {
-						solver = new EquivalenceClassSolver();
-					} else if(args[1].equals("--ids")) {
-						solver = new IterativeDeepeningSolver();
-					} else if(args[1].equals("--bfs")) {
-						solver = new BreadthFirstSearchSolver();
-					} else if(args[1].equals("--astar")) {
-						if(args.length < 4) {
-							System.err.println("need feature list");
-							System.exit(1);
-						}
-						Feature[] features = null;
-						double[] weights = null;
-						for(int i=3; i<args.length; i++) {
-							if(args[i].equals("--features")) {
-								features = Feature.vectorFromString(args[i+1]);
-								i++;
-							} else if(args[i].equals("--weights")) {
-								weights = Util.vectorFromString(args[i+1]);
-								if(weights.length != features.length) {
-									System.err.println("different number of weights than features");
-									System.exit(1);
+					solver = solverFactory(args[1], args, 3).get();
+					Solver inner = solver instanceof CachingSolver ? ((CachingSolver)solver).getSolver() : solver;
+					if(inner instanceof AnytimeAStarSolver) {
+						((AnytimeAStarSolver)inner).setListener(new AnytimeAStarSolver.Listener() {
+							public void improved(SolveResult result) {
+								if(Double.isNaN(result.bound)) {
+									System.err.println("found " + result.path.size() + " moves");
+								} else {
+									System.err.println("found " + result.path.size() + " moves, at most " + result.bound + "x optimal");
 								}
-								i++;
-							} else if(args[i].equals("--weightsFile")) {
-								weights = Util.vectorFromFile(args[i+1]);
-								i++;
-							} else {
-								System.err.println("unrecognized solve option " + args[i]);
-								System.exit(1);
 							}
-						}
-						Heuristic heuristic = new Heuristic(features, weights);
-						solver = new AStarSearchSolver(heuristic);
-					} else {
-						System.err.println("unrecognized solver name");
-						usage();
+						});
 					}
 					puzzleFile = args[2];
 				}
 				Board board = BoardIO.read(puzzleFile);
-				SolveResult solution = solver.getSolution(board);
+				SolveOptions options = budgetOptions(budget, 1);
+				options.timePhases = timePhases;
+				SolveResult solution = solver.getSolution(board, options);
+				if(json) {
+					System.out.println(solution.toJson());
+				}
+				if(solution.status != SolveResult.Status.SOLVED) {
+					System.out.println(solution.status == SolveResult.Status.UNSOLVABLE ? "no solution" : "gave up: over budget");
+					System.out.println("visited states: " + solution.visitedStates);
+					System.out.println(solution.stats);
+					return;
+				}
 				System.out.println("path length: " + solution.path.size() + " moves");
 				System.out.println("visited states: " + solution.visitedStates);
+				if(!Double.isNaN(solution.bound)) {
+					System.out.println("suboptimality bound: " + solution.bound);
+				}
+				System.out.println(solution.stats);
 				System.out.println("solved board: ");
 				System.out.println(solution.solvedBoard);
 				// sanity check
@@ -111,6 +148,42 @@ public class Main {
 				if(!board.equals(solution.solvedBoard)) {
 					System.err.println("ERROR: solved board not the result of following solution path");
 				}
+			} else if(operation.equals("solve-batch")) {
+				// pull out the budget and pool size; everything else is the solver and its options
+				long[] budget = new long[4];
+				args = takeBudget(args, budget);
+				int numWorkers = -1;
+				boolean byClass = false;
+				List<String> rest = new ArrayList<>();
+				for(int i=0; i<args.length; i++) {
+					if(args[i].equals("--workers")) {
+						numWorkers = Integer.parseInt(args[++i]);
+					} else if(args[i].equals("--byClass")) {
+						byClass = true;
+					} else {
+						rest.add(args[i]);
+					}
+				}
+				if(byClass) {
+					// classes are built by their own parallel BFS, to completion
+					if(rest.size() > 2 || numWorkers != -1 || budget[0] != -1 || budget[1] != -1 || budget[2] != -1 || budget[3] != -1) {
+						System.err.println("--byClass takes no solver, --workers or budget options");
+						System.exit(1);
+					}
+					solveByClass(Util.getFilePaths(args[1]));
+					return;
+				}
+				if(numWorkers == -1) {
+					numWorkers = Runtime.getRuntime().availableProcessors();
+				}
+				String[] solverArgs = rest.toArray(new String[0]);
+				Supplier<Solver> factory;
+				if(solverArgs.length > 2) {
+					factory = solverFactory(solverArgs[2], solverArgs, 3);
+				} else {
+					factory = withSolutionCache(BreadthFirstSearchSolver::new, true);
+				}
+				solveBatch(Util.getFilePaths(args[1]), factory, budget, numWorkers);
 			} else if(operation.equals("features")) {
 				if(args.length < 2) {
 					System.err.println("need feature list");
@@ -220,6 +293,24 @@ public class Main {
 				} else {
 					usage();
 				}
+			} else if(operation.equals("audit-hashes")) {
+				auditHashes(Util.getFilePaths(args[1]));
+			} else if(operation.equals("build-depth-db")) {
+				int maxCars = CarLayout.MAX_CARS;
+				if(args.length == 4 && args[2].equals("--maxCars")) {
+					maxCars = Integer.parseInt(args[3]);
+				} else if(args.length != 2) {
+					usage();
+				}
+				DepthDatabaseBuilder builder = new DepthDatabaseBuilder(maxCars);
+				try {
+					builder.build(new File(args[1]));
+				} catch(IOException e) {
+					System.err.println("couldn't write " + args[1] + ": " + e.getMessage());
+					System.exit(1);
+				}
+				System.err.println("equivalence classes: " + builder.numClasses());
+				System.err.println("boards: " + builder.numEntries());
 			} else {
 				usage();
 			}
@@ -228,6 +319,264 @@ public class Main {
 		}
 	}
 
+	/**
+	 * Reads a solver name and, for the informed searches, the options from
+	 * args[optionsIndex] on. Returns a factory for fresh solvers, so that
+	 * concurrent solves don't share search state or feature scratch space.
+	 */
+	private static Supplier<Solver> solverFactory(String name, String[] args, int optionsIndex) {
+		if(name.equals("--equiv")) {
+			return withSolutionCache(EquivalenceClassSolver::new, true);
+		} else if(name.equals("--ids")) {
+			return withSolutionCache(IterativeDeepeningSolver::new, true);
+		} else if(name.equals("--bfs")) {
+			return withSolutionCache(BreadthFirstSearchSolver::new, true);
+		} else if(name.equals("--bidir")) {
+			return withSolutionCache(BidirectionalSolver::new, true);
+		} else if(!name.equals("--astar") && !name.equals("--idastar") && !name.equals("--anytime")) {
+			System.err.println("unrecognized solver name");
+			usage();
+		}
+		if(args.length < optionsIndex + 1) {
+			System.err.println("need feature list");
+			System.exit(1);
+		}
+		Feature[] features = null;
+		double[] weights = null;
+		int cacheSize = 0;
+		long timeLimit = -1;
+		int numThreads = 1;
+		for(int i=optionsIndex; i<args.length; i++) {
+			if(args[i].equals("--features")) {
+				features = Feature.vectorFromString(args[i+1]);
+				i++;
+			} else if(args[i].equals("--weights")) {
+				weights = Util.vectorFromString(args[i+1]);
+				if(weights.length != features.length) {
+					System.err.println("different number of weights than features");
+					System.exit(1);
+				}
+				i++;
+			} else if(args[i].equals("--weightsFile")) {
+				weights = Util.vectorFromFile(args[i+1]);
+				i++;
+			} else if(args[i].equals("--hCache")) {
+				cacheSize = Integer.parseInt(args[i+1]);
+				i++;
+			} else if(args[i].equals("--timeLimit")) {
+				timeLimit = Long.parseLong(args[i+1]);
+				i++;
+			} else if(args[i].equals("--threads")) {
+				numThreads = Integer.parseInt(args[i+1]);
+				i++;
+			} else {
+				System.err.println("unrecognized solve option " + args[i]);
+				System.exit(1);
+			}
+		}
+		final Heuristic heuristic = new Heuristic(features, weights);
+		final int finalCacheSize = cacheSize;
+		final long finalTimeLimit = timeLimit;
+		final int finalNumThreads = numThreads;
+		if(name.equals("--idastar")) {
+			return withSolutionCache(() -> new IDAStarSolver(heuristic.copy()), false);
+		} else if(name.equals("--anytime")) {
+			return withSolutionCache(() -> {
+				AnytimeAStarSolver anytime = new AnytimeAStarSolver(heuristic.copy());
+				anytime.setTimeLimit(finalTimeLimit);
+				return anytime;
+			}, false);
+		} else if(numThreads > 1) {
+			return withSolutionCache(() -> new ParallelAStarSolver(heuristic.copy(), finalNumThreads), false);
+		} else {
+			return withSolutionCache(() -> new AStarSearchSolver(heuristic.copy(), finalCacheSize), false);
+		}
+	}
+
+	/**
+	 * Wraps the factory's solvers to look boards up in the solution cache, if
+	 * one was given, and to add their solutions to it if they're optimal.
+	 * Informed solvers never add to it, since their heuristic may not be
+	 * admissible.
+	 */
+	private static Supplier<Solver> withSolutionCache(final Supplier<Solver> factory, final boolean optimal) {
+		final SolutionCache cache = SolutionCache.getDefault();
+		if(cache == null) {
+			return factory;
+		}
+		return () -> new CachingSolver(factory.get(), cache, optimal);
+	}
+
+	/**
+	 * Takes the budget options out of args: --maxExpansions N, --maxOpen N,
+	 * --timeBudget MS and --tableSize N go into budget in that order, -1
+	 * where not given.
+	 * Returns the rest of args.
+	 */
+	private static String[] takeBudget(String[] args, long[] budget) {
+		Arrays.fill(budget, -1);
+		List<String> rest = new ArrayList<>();
+		for(int i=0; i<args.length; i++) {
+			if(args[i].equals("--maxExpansions")) {
+				budget[0] = Long.parseLong(args[++i]);
+			} else if(args[i].equals("--maxOpen")) {
+				budget[1] = Long.parseLong(args[++i]);
+			} else if(args[i].equals("--timeBudget")) {
+				budget[2] = Long.parseLong(args[++i]);
+			} else if(args[i].equals("--tableSize")) {
+				budget[3] = Long.parseLong(args[++i]);
+			} else {
+				rest.add(args[i]);
+			}
+		}
+		return rest.toArray(new String[0]);
+	}
+
+	// options for one solve, with its time budget starting now, and a share
+	// of the table size for each of the solves run side by side
+	private static SolveOptions budgetOptions(long[] budget, int numSolves) {
+		SolveOptions options = new SolveOptions();
+		options.maxExpansions = budget[0];
+		options.maxOpenSize = budget[1];
+		options.setTimeLimit(budget[2]);
+		options.tableSize = budget[3] < 0 ? -1 : budget[3] / numSolves;
+		return options;
+	}
+
+	/**
+	 * Solves every puzzle on a pool of workers, each keeping one solver, and
+	 * prints a CSV row per puzzle in path order as soon as it and all the
+	 * rows before it are done. Path length is -1 for puzzles not solved.
+	 */
+	private static void solveBatch(List<Path> paths, final Supplier<Solver> factory, final long[] budget, int numWorkers) {
+		List<Path> sorted = new ArrayList<>(paths);
+		Collections.sort(sorted);
+		final ThreadLocal<Solver> solvers = ThreadLocal.withInitial(factory);
+		ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+		List<Future<String>> rows = new ArrayList<>();
+		for(final Path path : sorted) {
+			rows.add(pool.submit(() -> {
+				Board board = BoardIO.read(path.toString());
+				long start = System.nanoTime();
+				SolveResult solution = solvers.get().getSolution(board, budgetOptions(budget, numWorkers));
+				long wallMillis = (System.nanoTime() - start) / 1000000;
+				int pathLength = solution.path == null ? -1 : solution.path.size();
+				return path + "," + solution.status.toString().toLowerCase() + "," + pathLength + "," + solution.visitedStates + "," + wallMillis;
+			}));
+		}
+		pool.shutdown();
+		System.out.println("puzzle,status,path_length,visited_states,wall_ms");
+		try {
+			for(Future<String> row : rows) {
+				System.out.println(row.get());
+			}
+		} catch(InterruptedException | ExecutionException e) {
+			System.err.println("batch solve failed: " + e);
+			pool.shutdownNow();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Solves puzzles a class at a time instead of one by one. Each board is
+	 * looked up in the classes already built for boards of its layout, and
+	 * only a board in none of them has its class built, so the one BFS out
+	 * from a class's solutions answers every board that's a member. The work
+	 * goes with the number of distinct classes rather than puzzles. Boards are
+	 * taken a layout at a time, so a layout's classes can be dropped once its
+	 * boards are answered. Rows are in path order, like solveBatch()'s;
+	 * visited states is the class's size, and the time to build a class goes
+	 * to the board it was built from.
+	 */
+	private static void solveByClass(List<Path> paths) {
+		List<Path> sorted = new ArrayList<>(paths);
+		Collections.sort(sorted);
+		Map<CarLayout, List<Integer>> byLayout = new HashMap<>();
+		Board[] boards = new Board[sorted.size()];
+		for(int i = 0; i < boards.length; i++) {
+			boards[i] = BoardIO.read(sorted.get(i).toString());
+			byLayout.computeIfAbsent(boards[i].getLayout(), k -> new ArrayList<Integer>()).add(i);
+		}
+		String[] rows = new String[boards.length];
+		// classes come from the shared cache, and are told apart by hash.
+		// going a layout at a time keeps a layout's classes cached while
+		// they're wanted; they're asked for from the cache directly, since
+		// Board.getEquivalenceClass() would hold on to every one of them
+		EquivalenceClassCache cache = EquivalenceClassCache.getShared();
+		Set<Long> classes = new HashSet<>();
+		for(List<Integer> group : byLayout.values()) {
+			for(int i : group) {
+				long start = System.nanoTime();
+				EquivalenceClass graph = cache.get(boards[i]);
+				classes.add(graph.hash());
+				String row;
+				if(graph.maxDepth() == -1) {
+					row = "unsolvable,-1," + graph.size();
+				} else {
+					row = "solved," + graph.movesToNearestSolution(boards[i]).size() + "," + graph.size();
+				}
+				rows[i] = sorted.get(i) + "," + row + "," + (System.nanoTime() - start) / 1000000;
+			}
+		}
+		System.out.println("puzzle,status,path_length,visited_states,wall_ms");
+		for(String row : rows) {
+			System.out.println(row);
+		}
+		System.err.println(boards.length + " puzzles in " + classes.size() + " classes");
+	}
+
+	private static void auditHashes(List<Path> paths) {
+		Random rng = new Random();
+		Set<Long> auditedClasses = new HashSet<>();
+		long totalStates = 0;
+		long totalZobristCollisions = 0;
+		long totalGridCollisions = 0;
+		long incrementalMismatches = 0;
+		for(Path path : paths) {
+			Board board = BoardIO.read(path.toAbsolutePath().toString());
+			CarLayout layout = board.getLayout();
+			// make sure move() keeps the incremental hash in step with the position
+			for(int i=0; i<100; i++) {
+				List<Move> moves = new ArrayList<>(board.allPossibleMoves());
+				if(moves.isEmpty()) {
+					break;
+				}
+				board.move(moves.get(rng.nextInt(moves.size())));
+				if(board.hash() != layout.zobrist(board.key())) {
+					incrementalMismatches++;
+				}
+			}
+			EquivalenceClass graph = board.getEquivalenceClass();
+			if(!auditedClasses.add(graph.hash())) {
+				continue;
+			}
+			// distinct exact keys that land on the same hash are collisions
+			Map<Long,Long> zobristKeys = new HashMap<>();
+			Map<Long,Long> gridKeys = new HashMap<>();
+			int zobristCollisions = 0;
+			int gridCollisions = 0;
+			for(long key : graph.states()) {
+				if(zobristKeys.put(layout.zobrist(key), key) != null) {
+					zobristCollisions++;
+				}
+				if(gridKeys.put(layout.toBoard(key).getGrid().hash(), key) != null) {
+					gridCollisions++;
+				}
+			}
+			if(zobristCollisions > 0 || gridCollisions > 0) {
+				System.out.println(path.toString() + ": " + zobristCollisions + " zobrist collisions, " + gridCollisions + " grid hash collisions");
+			}
+			totalStates += graph.size();
+			totalZobristCollisions += zobristCollisions;
+			totalGridCollisions += gridCollisions;
+		}
+		System.out.println("equivalence classes audited: " + auditedClasses.size());
+		System.out.println("states audited: " + totalStates);
+		System.out.println("zobrist collisions: " + totalZobristCollisions);
+		System.out.println("legacy grid hash collisions: " + totalGridCollisions);
+		System.out.println("incremental hash mismatches: " + incrementalMismatches);
+	}
+
 	private static void usage() {
 		System.err.println(usage);
 		System.exit(1);
@@ -0,0 +1,73 @@
+package rushhour.core;
+
+/**
+ * Helpers for packing board occupancy into a long. Boards up to 8x8 fit in
+ * 64 bits. A board keeps two bitboards: a row-major one (bit y*width + x) and
+ * a column-major one (bit x*height + y), so that both the row and the column
+ * of any car can be pulled out with a single shift and mask. Slide ranges are
+ * then read from precomputed tables indexed by the occupancy of that line.
+ */
+public final class Bitboard {
+
+	public static final int MAX_SIZE = 8;
+
+	// FREE_BEFORE[line][pos] is the number of empty cells directly before pos
+	private static final byte[][] FREE_BEFORE = new byte[1 << MAX_SIZE][MAX_SIZE + 1];
+	// FREE_FROM[line][pos] is the number of empty cells starting at pos
+	private static final byte[][] FREE_FROM = new byte[1 << MAX_SIZE][MAX_SIZE + 1];
+
+	static {
+		for(int line = 0; line < (1 << MAX_SIZE); line++) {
+			for(int pos = 0; pos <= MAX_SIZE; pos++) {
+				int before = 0;
+				while(pos - before - 1 >= 0 && (line & (1 << (pos - before - 1))) == 0) {
+					before++;
+				}
+				int from = 0;
+				while(pos + from < MAX_SIZE && (line & (1 << (pos + from))) == 0) {
+					from++;
+				}
+				FREE_BEFORE[line][pos] = (byte)before;
+				FREE_FROM[line][pos] = (byte)from;
+			}
+		}
+	}
+
+	private Bitboard() {}
+
+	public static boolean fits(int width, int height) {
+		return 0 < width && width <= MAX_SIZE && 0 < height && height <= MAX_SIZE;
+	}
+
+	/**
+	 * The mask of a car of the given length whose first cell is bit start.
+	 */
+	public static long carMask(int start, int length) {
+		return ((1L << length) - 1) << start;
+	}
+
+	/**
+	 * Extracts one line (a row from a row-major bitboard, or a column from a
+	 * column-major one) as an int of lineLength bits.
+	 */
+	public static int line(long bits, int index, int lineLength) {
+		return (int)(bits >>> (index * lineLength)) & ((1 << lineLength) - 1);
+	}
+
+	/**
+	 * How far a car whose first cell is at pos can slide backward (left/up).
+	 */
+	public static int freeBefore(int line, int pos) {
+		return FREE_BEFORE[line][pos];
+	}
+
+	/**
+	 * How far a car whose cells end just before pos can slide forward
+	 * (right/down) on a line of the given length.
+	 */
+	public static int freeFrom(int line, int pos, int lineLength) {
+		// treat everything past the end of the line as a wall
+		return FREE_FROM[(line | (0xff << lineLength)) & 0xff][pos];
+	}
+
+}
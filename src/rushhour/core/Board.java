@@ -18,14 +18,22 @@ import java.util.Set;
 public class Board {
 	private int width, height;
 	private Grid grid;
+	// occupancy, row-major (bit y*width+x) and column-major (bit x*height+y)
+	private long rowBits, columnBits;
+	// incrementally-updated Zobrist hash of the car positions
+	private long zobrist;
 	private final int EMPTY_SPOT = -1;
 	// 0th car is vip
 	private List<Car> cars;
 
 	private EquivalenceClass equivalenceClass;
+	private CarLayout layout;
 
 	// Basic constructor
 	public Board(int width, int height) {
+		if(!Bitboard.fits(width, height)) {
+			throw new IllegalArgumentException("boards larger than " + Bitboard.MAX_SIZE + "x" + Bitboard.MAX_SIZE + " are not supported");
+		}
 		this.width = width;
 		this.height = height;
 		this.grid = new Grid(width,height);
@@ -34,22 +42,29 @@ public class Board {
 
 	// Overloaded for importing from file
 	public Board(int width, int height, List<Car> cars) {
-		this.width = width;
-		this.height = height;
-		this.grid = new Grid(width,height);
-		this.cars = new ArrayList<Car>();
+		this(width, height);
 		// can't just do this.cars = cars b/c we need to update grid
 		for (int i = 0; i < cars.size(); i++) {
 			this.addCar(cars.get(i));
 		}
 	}
 
+	// for decoding a packed state
+	Board(CarLayout layout, long state) {
+		this(layout.getWidth(), layout.getHeight(), layout.getCars(state));
+		this.layout = layout;
+	}
+
 	// for deep copying
-	private Board(int width, int height, Grid grid, List<Car> cars) {
+	private Board(int width, int height, Grid grid, List<Car> cars, long rowBits, long columnBits, long zobrist, CarLayout layout) {
 		this.width = width;
 		this.height = height;
 		this.grid = grid;
 		this.cars = cars;
+		this.rowBits = rowBits;
+		this.columnBits = columnBits;
+		this.zobrist = zobrist;
+		this.layout = layout;
 	}
 
 	public boolean isSolved() {
@@ -72,13 +87,45 @@ public class Board {
 		return this.grid;
 	}
 
-	public Long hash() {
-		return this.grid.hash();
+	/**
+	 * Zobrist hash of the car positions, maintained incrementally by move().
+	 * Good for hash tables, but may collide; use key() for an exact identity.
+	 */
+	public long hash() {
+		return this.zobrist;
+	}
+
+	/**
+	 * Exact, collision-free key for this position among all positions sharing
+	 * its layout (i.e. its equivalence class).
+	 */
+	public long key() {
+		return this.getLayout().encode(this);
+	}
+
+	/**
+	 * The lengths, orientations and lanes of this board's cars, shared by every
+	 * position reachable from it. Recomputed only after cars are added/cleared.
+	 */
+	public CarLayout getLayout() {
+		if(this.layout == null) {
+			this.layout = CarLayout.of(this);
+		}
+		return this.layout;
+	}
+
+	public BoardState getState() {
+		CarLayout layout = this.getLayout();
+		return new BoardState(layout, layout.encode(this));
 	}
 
+	/**
+	 * This board's class, from the shared EquivalenceClassCache, so every
+	 * board in the class gets the same read-only instance.
+	 */
 	public EquivalenceClass getEquivalenceClass() {
 		if(this.equivalenceClass == null) {
-			this.equivalenceClass = new EquivalenceClass(this);
+			this.equivalenceClass = EquivalenceClassCache.getShared().get(this);
 		}
 		return this.equivalenceClass;
 	}
@@ -96,7 +143,7 @@ public class Board {
 		for (Car car : this.cars) {
 			newCars.add(car.copy());
 		}
-		return (new Board(this.width, this.height, this.grid.copy(), newCars));
+		return (new Board(this.width, this.height, this.grid.copy(), newCars, this.rowBits, this.columnBits, this.zobrist, this.layout));
 	}
 
 	public boolean addCar(Car newCar) {
@@ -114,63 +161,52 @@ public class Board {
 		for (int i = 0; i < newCar.length; i++) {
 			grid.set(newCar.x + (dx*i),newCar.y + (dy*i),cars.size()-1);
 		}
+		this.placeBits(newCar);
+		this.zobrist ^= Zobrist.key(cars.size()-1, newCar.x, newCar.y);
 		this.equivalenceClass = null;
+		this.layout = null;
 		return true;
 	}
 
 	public boolean canAddCar(Car newCar){
-		boolean canPlace = true;
-		int dx = 0;
-		int dy = 0;
-		if(newCar.horizontal) {
-			dx++;
-		} else {
-			dy++;
-		}
-		for(int i = 0; i < newCar.length; i++) {
-			if(grid.get(newCar.x + (dx*i), newCar.y + (dy*i)) != -1) {
-				canPlace = false;
-				break;
-			}
+		int endX = newCar.x + (newCar.horizontal ? newCar.length : 1);
+		int endY = newCar.y + (newCar.horizontal ? 1 : newCar.length);
+		if(newCar.x < 0 || newCar.y < 0 || endX > this.width || endY > this.height) {
+			return false;
 		}
-		return canPlace;
+		return (this.rowBits & this.rowMask(newCar)) == 0;
 	}
 
-	public boolean canMove(int vehicleIndex, int vector) {
+	/**
+	 * How many cells the given car can slide backward (left/up).
+	 */
+	public int maxBackward(int vehicleIndex) {
 		Car c = this.cars.get(vehicleIndex);
-		if(vector == 0) {
-			return true;
+		if(c.horizontal) {
+			return Bitboard.freeBefore(Bitboard.line(this.rowBits, c.y, this.width), c.x);
+		} else {
+			return Bitboard.freeBefore(Bitboard.line(this.columnBits, c.x, this.height), c.y);
 		}
+	}
+
+	/**
+	 * How many cells the given car can slide forward (right/down).
+	 */
+	public int maxForward(int vehicleIndex) {
+		Car c = this.cars.get(vehicleIndex);
 		if(c.horizontal) {
-			if(vector > 0) {
-				for(int testX = c.x+c.length; testX < c.x+c.length+vector; testX++) {
-					if(testX >= this.grid.width || this.grid.get(testX, c.y) != -1) {
-						return false;
-					}
-				}
-			} else {
-				for(int testX = c.x-1; testX > c.x + vector-1; testX--) {
-					if(testX < 0 || this.grid.get(testX, c.y) != -1) {
-						return false;
-					}
-				}
-			}
+			return Bitboard.freeFrom(Bitboard.line(this.rowBits, c.y, this.width), c.x + c.length, this.width);
 		} else {
-			if(vector > 0) {
-				for(int testY = c.y+c.length; testY < c.y+c.length+vector; testY++) {
-					if(testY >= this.grid.height || this.grid.get(c.x, testY) != -1) {
-						return false;
-					}
-				}
-			} else {
-				for(int testY = c.y-1; testY > c.y+vector-1; testY--) {
-					if(testY < 0 || this.grid.get(c.x, testY) != -1) {
-						return false;
-					}
-				}
-			}
+			return Bitboard.freeFrom(Bitboard.line(this.columnBits, c.x, this.height), c.y + c.length, this.height);
+		}
+	}
+
+	public boolean canMove(int vehicleIndex, int vector) {
+		if(vector > 0) {
+			return vector <= this.maxForward(vehicleIndex);
+		} else {
+			return -vector <= this.maxBackward(vehicleIndex);
 		}
-		return true;
 	}
 
 	public boolean move(Move move) {
@@ -181,53 +217,79 @@ public class Board {
 		if(!this.canMove(index, vector)){
 			return false;
 		}
+		this.slide(index, vector);
+		return true;
+	}
+
+	/**
+	 * Makes a packed move (see Move.pack()) in place, without checking that it
+	 * is legal. Meant for searches that walk a single board and take moves
+	 * back with undo().
+	 */
+	public void apply(int move) {
+		this.slide(Move.index(move), Move.vector(move));
+	}
+
+	/**
+	 * Takes back a packed move previously made with apply().
+	 */
+	public void undo(int move) {
+		this.slide(Move.index(move), -Move.vector(move));
+	}
+
+	private void slide(int index, int vector) {
 		Car c = this.cars.get(index);
+		int dx = c.horizontal ? 1 : 0;
+		int dy = c.horizontal ? 0 : 1;
+		// un-place car
+		this.clearBits(c);
+		this.zobrist ^= Zobrist.key(index, c.x, c.y);
+		for(int i=0; i<c.length; i++) {
+			this.grid.set(c.x + dx*i, c.y + dy*i, EMPTY_SPOT);
+		}
 		if(c.horizontal) {
-			if(vector > 0) {
-				// un-place car
-				for(int i=0; i<c.length; i++) {
-					this.grid.set(c.x + i, c.y, -1);
-				}
-				c.x += vector;
-				// place car
-				for(int i=0; i<c.length; i++) {
-					this.grid.set(c.x + i, c.y, index);
-				}
-			} else {
-				// un-place car
-				for(int i=0; i<c.length; i++) {
-					this.grid.set(c.x + i, c.y, -1);
-				}
-				c.x += vector;
-				// place car
-				for(int i=0; i<c.length; i++) {
-					this.grid.set(c.x + i, c.y, index);
-				}
-			}
+			c.x += vector;
 		} else {
-			if(vector > 0) {
-				// un-place car
-				for(int i=0; i<c.length; i++) {
-					this.grid.set(c.x, c.y + i, -1);
-				}
-				c.y += vector;
-				// place car
-				for(int i=0; i<c.length; i++) {
-					this.grid.set(c.x, c.y + i, index);
-				}
-			} else {
-				// un-place car
-				for(int i=0; i<c.length; i++) {
-					this.grid.set(c.x, c.y + i, -1);
-				}
-				c.y += vector;
-				// place car
-				for(int i=0; i<c.length; i++) {
-					this.grid.set(c.x, c.y + i, index);
-				}
-			}
+			c.y += vector;
 		}
-		return true;
+		// place car
+		this.placeBits(c);
+		this.zobrist ^= Zobrist.key(index, c.x, c.y);
+		for(int i=0; i<c.length; i++) {
+			this.grid.set(c.x + dx*i, c.y + dy*i, index);
+		}
+	}
+
+	private void placeBits(Car c) {
+		this.rowBits |= this.rowMask(c);
+		this.columnBits |= this.columnMask(c);
+	}
+
+	private void clearBits(Car c) {
+		this.rowBits &= ~this.rowMask(c);
+		this.columnBits &= ~this.columnMask(c);
+	}
+
+	private long rowMask(Car c) {
+		if(c.horizontal) {
+			return Bitboard.carMask(c.y*this.width + c.x, c.length);
+		}
+		long mask = 0L;
+		for(int i=0; i<c.length; i++) {
+			mask |= 1L << ((c.y+i)*this.width + c.x);
+		}
+		return mask;
+	}
+
+	private long columnMask(Car c) {
+		if(!c.horizontal) {
+			return Bitboard.carMask(c.x*this.height + c.y, c.length);
+		}
+		long mask = 0L;
+		for(int i=0; i<c.length; i++) {
+			mask |= 1L << ((c.x+i)*this.height + c.y);
+		}
+		return mask;
 	}
 
 	public Board getNeighborBoard(Move move) {
@@ -236,26 +298,44 @@ public class Board {
 		return ret;
 	}
 
-	public Set<Move> allPossibleMoves() {
-		Set<Move> moves = new HashSet<Move>();
-		for(int vehicleIndex = 0; vehicleIndex<this.getCars().size(); vehicleIndex++) {
-			int vector;
-			// Creates all possible board positions moving to the starting direction
-			Board currentState = this.copy();
-			vector = -1;
-			while(currentState.move(vehicleIndex, -1)) {
-				moves.add(new Move(vehicleIndex, vector));
-				vector--;
+	/**
+	 * An upper bound on the number of moves from any position of this board,
+	 * for sizing move buffers.
+	 */
+	public int maxMoves() {
+		int maxMoves = 0;
+		for(Car c : this.cars) {
+			maxMoves += (c.horizontal ? this.width : this.height) - c.length;
+		}
+		return maxMoves;
+	}
+
+	/**
+	 * Writes every legal move into buffer, packed as by Move.pack(), and
+	 * returns how many there were. The buffer needs room for maxMoves() moves.
+	 */
+	public int generateMoves(int[] buffer) {
+		int numMoves = 0;
+		for(int vehicleIndex = 0; vehicleIndex<this.cars.size(); vehicleIndex++) {
+			int backward = this.maxBackward(vehicleIndex);
+			for(int vector = 1; vector <= backward; vector++) {
+				buffer[numMoves++] = Move.pack(vehicleIndex, -vector);
 			}
-			// Moves back to the original position
-			currentState = this.copy();
-			// Repeats in the reverse of the starting direction
-			vector = 1;
-			while(currentState.move(vehicleIndex, 1)) {
-				moves.add(new Move(vehicleIndex, vector));
-				vector++;
+			int forward = this.maxForward(vehicleIndex);
+			for(int vector = 1; vector <= forward; vector++) {
+				buffer[numMoves++] = Move.pack(vehicleIndex, vector);
 			}
 		}
+		return numMoves;
+	}
+
+	public Set<Move> allPossibleMoves() {
+		int[] buffer = new int[this.maxMoves()];
+		int numMoves = this.generateMoves(buffer);
+		Set<Move> moves = new HashSet<Move>();
+		for(int i = 0; i < numMoves; i++) {
+			moves.add(Move.unpack(buffer[i]));
+		}
 		return moves;
 	}
 
@@ -275,8 +355,12 @@ public class Board {
 
 	public void clear(){
 		this.equivalenceClass = null;
+		this.layout = null;
 		this.grid.clear();
 		this.cars.clear();
+		this.rowBits = 0L;
+		this.columnBits = 0L;
+		this.zobrist = 0L;
 	}
 
 	public boolean equals(Board other) {
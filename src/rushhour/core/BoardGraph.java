@@ -5,6 +5,7 @@ import java.util.HashSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Collections;
 import java.util.Map;
@@ -13,86 +14,160 @@ import java.util.Random;
 
 public abstract class BoardGraph {
 
-	protected HashMap<Long,Vertex> vertices;
-	protected Set<Long> solutions;
+	// shared by every state in the graph
+	protected CarLayout layout;
+	// scratch space for move generation, sized for the layout
+	private int[] moveBuffer;
+	protected LongObjectHashMap<Vertex> vertices;
+	protected LongHashSet solutions;
 
 	public class Edge {
-		public Move move;
+		public int move; // packed, see Move.pack()
 		public Vertex vertex;
-		public Edge(Move move, Vertex vertex) {
+		public Edge(int move, Vertex vertex) {
 			this.move = move;
 			this.vertex = vertex;
 		}
 	}
 
 	public class Vertex implements Comparable<Vertex> {
-		public Board board;
+		public long state;
 		public Set<Edge> neighbors;
 		public int depth;
-		public Vertex(Board board) {
-			this.board = board;
+		public Vertex(long state) {
+			this.state = state;
 			this.depth = -2;
 			this.neighbors = null;
 		}
+		public Board getBoard() {
+			return layout.toBoard(this.state);
+		}
+		public boolean isSolved() {
+			return layout.isSolved(this.state);
+		}
 		// knits all neighbors into the graph, and returns any previously-unseen neighbors
 		public LinkedList<Edge> expand() {
 			if(this.neighbors == null) {
-				this.neighbors = new HashSet<Edge>();
-				LinkedList<Edge> unseen = new LinkedList<>();
-				// fill in neighbors with vertices already in the graph
-				for(Move move : this.board.allPossibleMoves()) {
-					Board neighborBoard = this.board.getNeighborBoard(move);
-					if(vertices.containsKey(neighborBoard.hash())) {
-						// if the vertex exists in the graph, replace current's instance with the graph's
-						this.neighbors.add(new Edge(move, vertices.get(neighborBoard.hash())));
-					} else {
-						// otherwise add current's instance to the graph
-						Vertex neighborVertex = new Vertex(neighborBoard);
-						vertices.put(neighborBoard.hash(), neighborVertex);
-						Edge newEdge = new Edge(move, neighborVertex);
-						this.neighbors.add(newEdge);
-						unseen.offer(newEdge);
-					}
-				}
-				return unseen;
+				int[] moves = moveBuffer();
+				return this.knitAll(moves, layout.generateMoves(this.state, moves));
 			}
 			return null;
 		}
+		private LinkedList<Edge> knitAll(int[] moves, int numMoves) {
+			this.neighbors = new HashSet<Edge>();
+			LinkedList<Edge> unseen = new LinkedList<>();
+			for(int i = 0; i < numMoves; i++) {
+				this.knit(unseen, moves[i]);
+			}
+			return unseen;
+		}
+		private void knit(LinkedList<Edge> unseen, int move) {
+			long neighborState = layout.apply(this.state, move);
+			Vertex neighborVertex = vertices.get(neighborState);
+			if(neighborVertex != null) {
+				// if the vertex exists in the graph, link to the graph's instance
+				this.neighbors.add(new Edge(move, neighborVertex));
+			} else {
+				// otherwise add a new vertex to the graph
+				neighborVertex = new Vertex(neighborState);
+				vertices.put(neighborState, neighborVertex);
+				Edge newEdge = new Edge(move, neighborVertex);
+				this.neighbors.add(newEdge);
+				unseen.offer(newEdge);
+			}
+		}
 		public int compareTo(Vertex other) {
 			return other.depth - this.depth;
 		}
 	}
 
 	protected BoardGraph() {
-		this.vertices = new HashMap<Long,Vertex>();
-		this.solutions = new HashSet<>();
+		this.vertices = new LongObjectHashMap<Vertex>();
+		this.solutions = new LongHashSet();
 	}
 
 	public int size() {
 		return vertices.size();
 	}
 
+	/**
+	 * Expands every vertex in the level that hasn't been yet. Move generation
+	 * for the whole level is spread across all cores; knitting the results into
+	 * the graph then happens on this thread, since the vertex map isn't
+	 * thread-safe.
+	 */
+	protected void expandAll(final List<Vertex> level) {
+		final CarLayout layout = this.layout;
+		final int[][] generated = new int[level.size()][];
+		ParallelRange.run(level.size(), new ParallelRange.Body() {
+			public void run(int from, int to) {
+				int[] moves = new int[layout.maxMoves()];
+				for(int i = from; i < to; i++) {
+					Vertex vertex = level.get(i);
+					if(vertex.neighbors == null) {
+						generated[i] = Arrays.copyOf(moves, layout.generateMoves(vertex.state, moves));
+					}
+				}
+			}
+		});
+		for(int i = 0; i < generated.length; i++) {
+			if(generated[i] != null) {
+				level.get(i).knitAll(generated[i], generated[i].length);
+			}
+		}
+	}
+
+	private int[] moveBuffer() {
+		if(this.moveBuffer == null || this.moveBuffer.length < this.layout.maxMoves()) {
+			this.moveBuffer = new int[this.layout.maxMoves()];
+		}
+		return this.moveBuffer;
+	}
+
+	public long[] states() {
+		return this.vertices.keys();
+	}
+
+	public CarLayout getLayout() {
+		return this.layout;
+	}
+
 	protected Vertex getVertex(Board board) {
-		return this.vertices.get(board.hash());
+		if(this.layout == null) {
+			return null;
+		}
+		return this.vertices.get(this.layout.encode(board));
+	}
+
+	public long numSolutions() {
+		return this.solutions.size();
 	}
 
 	public Set<Board> solutions() {
 		Set<Board> ret = new HashSet<>();
-		for(Long hash : this.solutions) {
-			ret.add(this.vertices.get(hash).board);
+		for(long state : this.solutions.toArray()) {
+			ret.add(this.layout.toBoard(state));
 		}
 		return ret;
 	}
 
 	public void clear() {
+		this.layout = null;
 		this.vertices.clear();
 		this.solutions.clear();
 	}
 
-	protected void addVertex(Board board) {
-		if(this.getVertex(board) == null) {
-			this.vertices.put(board.hash(), new Vertex(board));
+	protected Vertex addVertex(Board board) {
+		if(this.layout == null) {
+			this.layout = board.getLayout();
+		}
+		long state = this.layout.encode(board);
+		Vertex vertex = this.vertices.get(state);
+		if(vertex == null) {
+			vertex = new Vertex(state);
+			this.vertices.put(state, vertex);
 		}
+		return vertex;
 	}
 
 }
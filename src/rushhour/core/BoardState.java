@@ -0,0 +1,52 @@
+package rushhour.core;
+
+/**
+ * An immutable position in a puzzle: a shared CarLayout plus the packed car
+ * coordinates. Graphs and solvers store only the packed long internally; this
+ * is the handle for passing a position around by value.
+ */
+public final class BoardState {
+
+	private final CarLayout layout;
+	private final long code;
+
+	public BoardState(CarLayout layout, long code) {
+		this.layout = layout;
+		this.code = code;
+	}
+
+	public CarLayout getLayout() {
+		return this.layout;
+	}
+
+	public long getCode() {
+		return this.code;
+	}
+
+	public boolean isSolved() {
+		return this.layout.isSolved(this.code);
+	}
+
+	public Board toBoard() {
+		return this.layout.toBoard(this.code);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if(!(other instanceof BoardState)) {
+			return false;
+		}
+		BoardState o = (BoardState)other;
+		return this.code == o.code && this.layout.equals(o.layout);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(this.code * 31 + this.layout.signature());
+	}
+
+	public String toString() {
+		return Long.toHexString(this.code);
+	}
+
+}
@@ -0,0 +1,583 @@
+package rushhour.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The parts of a puzzle that never change while it is being played: the board
+ * dimensions, and each car's length, orientation and lane (its row if it is
+ * horizontal, its column if it is vertical). Given a layout, a position is
+ * fully described by one coordinate per car, which we pack into a long
+ * (BITS_PER_CAR bits per car, car 0 in the lowest bits). All boards, graphs
+ * and solvers working on the same puzzle share one layout.
+ *
+ * A layout with more than MAX_CARS cars doesn't fit one field per car, so it
+ * is packed a line at a time instead: cars sharing a line can't pass each
+ * other, so the layout also fixes their order (their slots), and each line
+ * gets one field numbering the ways its cars can stand in that order. No line
+ * of at most 8 cells has more than 15 such arrangements, so every board up to
+ * 8x8 with cars at least two long fits in a long either way.
+ */
+public final class CarLayout {
+
+	public static final int BITS_PER_CAR = 3;
+	public static final int MAX_CARS = 64 / BITS_PER_CAR;
+	private static final long POSITION_MASK = (1L << BITS_PER_CAR) - 1;
+
+	private final int width, height;
+	private final int[] lengths;
+	private final boolean[] horizontal;
+	private final int[] lanes;
+	// occupancy masks for each car at each of its positions
+	private final long[][] rowMasks, columnMasks;
+	private final long signature;
+	private final int maxMoves;
+	// where each car's field starts; packed by line, cars sharing a line share
+	// a field
+	private final int[] shifts;
+	// packing by line only: each car's place in its line, front to back, and
+	// for each car, the cars of its line in slot order, its position in each
+	// arrangement of the line, each arrangement's key (positions in base 8 by
+	// slot) and the arrangement with each key, or -1
+	private final int[] slots;
+	private final int[][] lineCars;
+	private final byte[][] arrangementPositions;
+	private final int[][] arrangementKeys;
+	private final int[][] keyArrangements;
+	private final long[] fieldMasks;
+	// reflect(), once it has been asked for
+	private CarLayout reflection;
+
+	private CarLayout(int width, int height, int[] lengths, boolean[] horizontal, int[] lanes, int[] slots) {
+		this.width = width;
+		this.height = height;
+		this.lengths = lengths;
+		this.horizontal = horizontal;
+		this.lanes = lanes;
+		this.rowMasks = new long[lengths.length][];
+		this.columnMasks = new long[lengths.length][];
+		int maxMoves = 0;
+		for(int car = 0; car < lengths.length; car++) {
+			int positions = this.lineLength(car) - lengths[car] + 1;
+			maxMoves += positions - 1;
+			this.rowMasks[car] = new long[positions];
+			this.columnMasks[car] = new long[positions];
+			for(int pos = 0; pos < positions; pos++) {
+				for(int i = 0; i < lengths[car]; i++) {
+					int x = horizontal[car] ? pos + i : lanes[car];
+					int y = horizontal[car] ? lanes[car] : pos + i;
+					this.rowMasks[car][pos] |= 1L << (y*width + x);
+					this.columnMasks[car][pos] |= 1L << (x*height + y);
+				}
+			}
+		}
+		this.slots = lengths.length > MAX_CARS ? slots : null;
+		this.shifts = new int[lengths.length];
+		this.fieldMasks = new long[lengths.length];
+		this.lineCars = new int[lengths.length][];
+		this.arrangementPositions = new byte[lengths.length][];
+		this.arrangementKeys = new int[lengths.length][];
+		this.keyArrangements = new int[lengths.length][];
+		if(this.slots == null) {
+			for(int car = 0; car < lengths.length; car++) {
+				this.shifts[car] = car * BITS_PER_CAR;
+				this.fieldMasks[car] = POSITION_MASK;
+			}
+		} else {
+			this.packByLine();
+		}
+		long sig = mix(width * 31 + height);
+		for(int car = 0; car < lengths.length; car++) {
+			int slot = this.slots == null ? 0 : this.slots[car] + 1;
+			sig = mix(sig ^ ((slot << 16) | (lengths[car] << 8) | (lanes[car] << 1) | (horizontal[car] ? 1 : 0)));
+		}
+		this.signature = sig;
+		this.maxMoves = maxMoves;
+	}
+
+	/**
+	 * Numbers the arrangements of each line's cars in slot order and lays
+	 * out one field per line, just wide enough for its arrangements.
+	 */
+	private void packByLine() {
+		int shift = 0;
+		for(int head = 0; head < this.numCars(); head++) {
+			if(this.slots[head] != 0) {
+				continue;
+			}
+			int[] cars = new int[this.countInLine(this.horizontal[head], this.lanes[head])];
+			for(int car = 0; car < this.numCars(); car++) {
+				if(this.horizontal[car] == this.horizontal[head] && this.lanes[car] == this.lanes[head]) {
+					cars[this.slots[car]] = car;
+				}
+			}
+			if(cars.length > 4) {
+				throw new IllegalArgumentException("can't pack " + cars.length + " cars in one line");
+			}
+			List<int[]> arrangements = new ArrayList<int[]>();
+			this.arrange(cars, 0, 0, new int[cars.length], arrangements);
+			int bits = 64 - Long.numberOfLeadingZeros(arrangements.size() - 1);
+			if(shift + bits > 64) {
+				throw new IllegalArgumentException("layout doesn't fit in a long");
+			}
+			int[] keys = new int[arrangements.size()];
+			int[] keyArrangements = new int[1 << (BITS_PER_CAR * cars.length)];
+			Arrays.fill(keyArrangements, -1);
+			for(int a = 0; a < arrangements.size(); a++) {
+				for(int i = 0; i < cars.length; i++) {
+					keys[a] += arrangements.get(a)[i] << (BITS_PER_CAR * i);
+				}
+				keyArrangements[keys[a]] = a;
+			}
+			for(int i = 0; i < cars.length; i++) {
+				int car = cars[i];
+				this.shifts[car] = shift;
+				this.fieldMasks[car] = (1L << bits) - 1;
+				this.lineCars[car] = cars;
+				this.arrangementKeys[car] = keys;
+				this.keyArrangements[car] = keyArrangements;
+				this.arrangementPositions[car] = new byte[arrangements.size()];
+				for(int a = 0; a < arrangements.size(); a++) {
+					this.arrangementPositions[car][a] = (byte)arrangements.get(a)[i];
+				}
+			}
+			shift += bits;
+		}
+	}
+
+	// every way to stand cars[i..] in order, starting no earlier than from
+	private void arrange(int[] cars, int i, int from, int[] positions, List<int[]> arrangements) {
+		if(i == cars.length) {
+			arrangements.add(positions.clone());
+			return;
+		}
+		for(int pos = from; pos < this.numPositions(cars[i]); pos++) {
+			positions[i] = pos;
+			this.arrange(cars, i + 1, pos + this.lengths[cars[i]], positions, arrangements);
+		}
+	}
+
+	public static CarLayout of(Board board) {
+		List<Car> cars = board.getCars();
+		int[] lengths = new int[cars.size()];
+		boolean[] horizontal = new boolean[cars.size()];
+		int[] lanes = new int[cars.size()];
+		int[] positions = new int[cars.size()];
+		for(int i = 0; i < cars.size(); i++) {
+			Car car = cars.get(i);
+			lengths[i] = car.length;
+			horizontal[i] = car.horizontal;
+			lanes[i] = car.horizontal ? car.y : car.x;
+			positions[i] = car.horizontal ? car.x : car.y;
+		}
+		int[] slots = new int[cars.size()];
+		for(int i = 0; i < cars.size(); i++) {
+			for(int j = 0; j < cars.size(); j++) {
+				if(horizontal[j] == horizontal[i] && lanes[j] == lanes[i] && positions[j] < positions[i]) {
+					slots[i]++;
+				}
+			}
+		}
+		return new CarLayout(board.getWidth(), board.getHeight(), lengths, horizontal, lanes, slots);
+	}
+
+	/**
+	 * The layout of just the given cars, in the given order, so cars[0] is the
+	 * new layout's VIP. Used for abstractions that drop some of the cars.
+	 */
+	public CarLayout subset(int[] cars) {
+		int[] lengths = new int[cars.length];
+		boolean[] horizontal = new boolean[cars.length];
+		int[] lanes = new int[cars.length];
+		int[] slots = new int[cars.length];
+		for(int i = 0; i < cars.length; i++) {
+			lengths[i] = this.lengths[cars[i]];
+			horizontal[i] = this.horizontal[cars[i]];
+			lanes[i] = this.lanes[cars[i]];
+			for(int j = 0; this.slots != null && j < cars.length; j++) {
+				if(this.lineCars[cars[j]] == this.lineCars[cars[i]] && this.slots[cars[j]] < this.slots[cars[i]]) {
+					slots[i]++;
+				}
+			}
+		}
+		return new CarLayout(this.width, this.height, lengths, horizontal, lanes, slots);
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int numCars() {
+		return this.lengths.length;
+	}
+
+	public int length(int car) {
+		return this.lengths[car];
+	}
+
+	public boolean isHorizontal(int car) {
+		return this.horizontal[car];
+	}
+
+	public int lane(int car) {
+		return this.lanes[car];
+	}
+
+	/**
+	 * The length of the line (row or column) the given car slides along.
+	 */
+	public int lineLength(int car) {
+		return this.horizontal[car] ? this.width : this.height;
+	}
+
+	/**
+	 * A 64-bit fingerprint of the layout, for telling apart states that have
+	 * the same encoding under different layouts.
+	 */
+	public long signature() {
+		return this.signature;
+	}
+
+	/**
+	 * How many positions the given car can take along its line.
+	 */
+	public int numPositions(int car) {
+		return this.lineLength(car) - this.lengths[car] + 1;
+	}
+
+	public long encode(Board board) {
+		List<Car> cars = board.getCars();
+		int[] positions = new int[cars.size()];
+		for(int i = 0; i < cars.size(); i++) {
+			Car car = cars.get(i);
+			positions[i] = car.horizontal ? car.x : car.y;
+		}
+		return this.encode(positions);
+	}
+
+	/**
+	 * The state with each car at the given position along its line. Packed
+	 * by line, the cars of each line must stand in slot order.
+	 */
+	public long encode(int[] positions) {
+		long state = 0L;
+		for(int car = 0; car < this.numCars(); car++) {
+			if(this.slots == null) {
+				state |= (long)positions[car] << this.shifts[car];
+			} else if(this.slots[car] == 0) {
+				int key = 0;
+				for(int i = 0; i < this.lineCars[car].length; i++) {
+					key += positions[this.lineCars[car][i]] << (BITS_PER_CAR * i);
+				}
+				int arrangement = this.keyArrangements[car][key];
+				if(arrangement == -1) {
+					throw new IllegalArgumentException("cars out of order in their line");
+				}
+				state |= (long)arrangement << this.shifts[car];
+			}
+		}
+		return state;
+	}
+
+	public Board toBoard(long state) {
+		return new Board(this, state);
+	}
+
+	public Car getCar(long state, int car) {
+		int pos = this.position(state, car);
+		if(this.horizontal[car]) {
+			return new Car(pos, this.lanes[car], this.lengths[car], true);
+		} else {
+			return new Car(this.lanes[car], pos, this.lengths[car], false);
+		}
+	}
+
+	public List<Car> getCars(long state) {
+		List<Car> cars = new ArrayList<Car>(this.numCars());
+		for(int car = 0; car < this.numCars(); car++) {
+			cars.add(this.getCar(state, car));
+		}
+		return cars;
+	}
+
+	public int position(long state, int car) {
+		int field = (int)((state >>> this.shifts[car]) & this.fieldMasks[car]);
+		return this.slots == null ? field : this.arrangementPositions[car][field];
+	}
+
+	public long move(long state, int car, int vector) {
+		if(this.slots == null) {
+			return state + ((long)vector << this.shifts[car]);
+		}
+		int field = (int)((state >>> this.shifts[car]) & this.fieldMasks[car]);
+		int moved = this.keyArrangements[car][this.arrangementKeys[car][field] + (vector << (BITS_PER_CAR * this.slots[car]))];
+		return state + ((long)(moved - field) << this.shifts[car]);
+	}
+
+	public boolean isSolved(long state) {
+		return this.position(state, 0) == this.width - this.lengths[0];
+	}
+
+	/**
+	 * The same Zobrist hash a Board in this state would report from hash().
+	 */
+	public long zobrist(long state) {
+		long hash = 0L;
+		for(int car = 0; car < this.numCars(); car++) {
+			int pos = this.position(state, car);
+			hash ^= this.horizontal[car] ? Zobrist.key(car, pos, this.lanes[car]) : Zobrist.key(car, this.lanes[car], pos);
+		}
+		return hash;
+	}
+
+	public long rowBits(long state) {
+		long bits = 0L;
+		for(int car = 0; car < this.numCars(); car++) {
+			bits |= this.rowMasks[car][this.position(state, car)];
+		}
+		return bits;
+	}
+
+	public long columnBits(long state) {
+		long bits = 0L;
+		for(int car = 0; car < this.numCars(); car++) {
+			bits |= this.columnMasks[car][this.position(state, car)];
+		}
+		return bits;
+	}
+
+	/**
+	 * How far the given car can slide backward (left/up), given the state's
+	 * row-major and column-major occupancy.
+	 */
+	public int maxBackward(long state, long rowBits, long columnBits, int car) {
+		int pos = this.position(state, car);
+		if(this.horizontal[car]) {
+			return Bitboard.freeBefore(Bitboard.line(rowBits, this.lanes[car], this.width), pos);
+		} else {
+			return Bitboard.freeBefore(Bitboard.line(columnBits, this.lanes[car], this.height), pos);
+		}
+	}
+
+	/**
+	 * How far the given car can slide forward (right/down), given the state's
+	 * row-major and column-major occupancy.
+	 */
+	public int maxForward(long state, long rowBits, long columnBits, int car) {
+		int end = this.position(state, car) + this.lengths[car];
+		if(this.horizontal[car]) {
+			return Bitboard.freeFrom(Bitboard.line(rowBits, this.lanes[car], this.width), end, this.width);
+		} else {
+			return Bitboard.freeFrom(Bitboard.line(columnBits, this.lanes[car], this.height), end, this.height);
+		}
+	}
+
+	/**
+	 * An upper bound on the number of moves from any state, for sizing move
+	 * buffers.
+	 */
+	public int maxMoves() {
+		return this.maxMoves;
+	}
+
+	/**
+	 * Writes every legal move from the given state into buffer, packed as by
+	 * Move.pack(), and returns how many there were. The buffer needs room for
+	 * maxMoves() moves.
+	 */
+	public int generateMoves(long state, int[] buffer) {
+		long rowBits = this.rowBits(state);
+		long columnBits = this.columnBits(state);
+		int numMoves = 0;
+		for(int car = 0; car < this.numCars(); car++) {
+			int backward = this.maxBackward(state, rowBits, columnBits, car);
+			for(int vector = 1; vector <= backward; vector++) {
+				buffer[numMoves++] = Move.pack(car, -vector);
+			}
+			int forward = this.maxForward(state, rowBits, columnBits, car);
+			for(int vector = 1; vector <= forward; vector++) {
+				buffer[numMoves++] = Move.pack(car, vector);
+			}
+		}
+		return numMoves;
+	}
+
+	/**
+	 * The state reached by making a packed move. The move is assumed legal.
+	 */
+	public long apply(long state, int move) {
+		return this.move(state, Move.index(move), Move.vector(move));
+	}
+
+	/**
+	 * Whether the VIP, and so the exit, is on the middle row, which only
+	 * happens on odd-height boards.
+	 */
+	public boolean exitsOnMiddleRow() {
+		return this.horizontal[0] && 2 * this.lanes[0] == this.height - 1;
+	}
+
+	/**
+	 * When the VIP is on the middle row, as on odd-height boards, reflecting
+	 * a state across that row gives another state of this layout, with the
+	 * same depth, as long as the reflected cars line up with this layout's
+	 * cars. Returns the renumbering for that: car i lands on car perm[i].
+	 * Cars sharing a line never pass each other, so the renumbering found
+	 * from one state holds for every state reachable from it. Returns null if
+	 * there's no such reflection.
+	 */
+	public int[] mirrorPermutation(long state) {
+		if(!this.exitsOnMiddleRow()) {
+			return null;
+		}
+		int[] perm = new int[this.numCars()];
+		for(int car = 0; car < this.numCars(); car++) {
+			int rank = this.rankInLine(state, car, this.horizontal[car], this.lanes[car]);
+			int lane = this.horizontal[car] ? this.height - 1 - this.lanes[car] : this.lanes[car];
+			if(!this.horizontal[car]) {
+				// the column is turned upside down
+				rank = this.countInLine(false, lane) - 1 - rank;
+			}
+			perm[car] = -1;
+			for(int other = 0; other < this.numCars(); other++) {
+				if(this.horizontal[other] == this.horizontal[car] && this.lanes[other] == lane
+						&& this.rankInLine(state, other, this.horizontal[other], lane) == rank) {
+					perm[car] = other;
+				}
+			}
+			if(perm[car] == -1 || this.lengths[perm[car]] != this.lengths[car]
+					|| this.countInLine(this.horizontal[car], lane) != this.countInLine(this.horizontal[car], this.lanes[car])) {
+				return null;
+			}
+		}
+		return perm;
+	}
+
+	// how many cars on the same line come before the given one
+	private int rankInLine(long state, int car, boolean horizontal, int lane) {
+		int rank = 0;
+		for(int other = 0; other < this.numCars(); other++) {
+			if(this.horizontal[other] == horizontal && this.lanes[other] == lane
+					&& this.position(state, other) < this.position(state, car)) {
+				rank++;
+			}
+		}
+		return rank;
+	}
+
+	private int countInLine(boolean horizontal, int lane) {
+		int count = 0;
+		for(int car = 0; car < this.numCars(); car++) {
+			if(this.horizontal[car] == horizontal && this.lanes[car] == lane) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The state reflected across the middle row, renumbered by a permutation
+	 * from mirrorPermutation().
+	 */
+	public long mirror(long state, int[] perm) {
+		return this.flip(state, perm, this);
+	}
+
+	/**
+	 * The smaller of a state and its mirror image, which stands for both in
+	 * searches that only keep one of each pair. With no permutation, the
+	 * state itself.
+	 */
+	public long canonical(long state, int[] perm) {
+		return perm == null ? state : Math.min(state, this.mirror(state, perm));
+	}
+
+	/**
+	 * The packed move that does to a mirror image what the given move does
+	 * to the original.
+	 */
+	public int mirrorMove(int move, int[] perm) {
+		int car = Move.index(move);
+		return Move.pack(perm[car], this.horizontal[car] ? Move.vector(move) : -Move.vector(move));
+	}
+
+	/**
+	 * This layout reflected across the middle row, with the cars kept in the
+	 * same order, as it would be read from a reflected puzzle file.
+	 */
+	public CarLayout reflect() {
+		if(this.reflection == null) {
+			int[] lanes = new int[this.numCars()];
+			int[] slots = new int[this.numCars()];
+			for(int car = 0; car < this.numCars(); car++) {
+				lanes[car] = this.horizontal[car] ? this.height - 1 - this.lanes[car] : this.lanes[car];
+				if(this.slots != null) {
+					// a column is turned upside down, so its cars come in reverse
+					slots[car] = this.horizontal[car] ? this.slots[car] : this.lineCars[car].length - 1 - this.slots[car];
+				}
+			}
+			this.reflection = new CarLayout(this.width, this.height, this.lengths, this.horizontal, lanes, slots);
+		}
+		return this.reflection;
+	}
+
+	/**
+	 * The state of reflect() matching a state of this layout.
+	 */
+	public long reflect(long state) {
+		return this.flip(state, null, this.reflect());
+	}
+
+	// the state turned upside down, with car i renumbered to perm[i] (or
+	// kept, with no permutation), encoded for the given layout
+	private long flip(long state, int[] perm, CarLayout target) {
+		int[] image = this.slots == null ? null : new int[this.numCars()];
+		long packed = 0L;
+		for(int car = 0; car < this.numCars(); car++) {
+			int pos = this.position(state, car);
+			if(!this.horizontal[car]) {
+				pos = this.numPositions(car) - 1 - pos;
+			}
+			int to = perm == null ? car : perm[car];
+			if(image == null) {
+				packed |= (long)pos << target.shifts[to];
+			} else {
+				image[to] = pos;
+			}
+		}
+		return image == null ? packed : target.encode(image);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if(!(other instanceof CarLayout)) {
+			return false;
+		}
+		CarLayout o = (CarLayout)other;
+		return this.signature == o.signature
+			&& this.width == o.width
+			&& this.height == o.height
+			&& Arrays.equals(this.lengths, o.lengths)
+			&& Arrays.equals(this.horizontal, o.horizontal)
+			&& Arrays.equals(this.lanes, o.lanes)
+			&& Arrays.equals(this.slots, o.slots);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(this.signature);
+	}
+
+	static long mix(long z) {
+		// splitmix64 finalizer
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,57 @@
+package rushhour.core;
+
+/**
+ * Thread-safe set of longs for parallel searches: a fixed number of
+ * LongHashSet stripes, each guarded by its own lock and chosen by the key's
+ * hash, so threads working on different states rarely contend.
+ */
+public class ConcurrentLongHashSet {
+
+	private static final int STRIPES = 64;
+
+	private final LongHashSet[] stripes;
+
+	public ConcurrentLongHashSet() {
+		this(16);
+	}
+
+	public ConcurrentLongHashSet(int expectedSize) {
+		this.stripes = new LongHashSet[STRIPES];
+		for(int i = 0; i < STRIPES; i++) {
+			this.stripes[i] = new LongHashSet(expectedSize / STRIPES);
+		}
+	}
+
+	private LongHashSet stripe(long key) {
+		// use the high bits, since LongHashSet probes with the low ones
+		return this.stripes[(int)(CarLayout.mix(key) >>> 58)];
+	}
+
+	/**
+	 * Adds the key, returning false if it was already present.
+	 */
+	public boolean add(long key) {
+		LongHashSet stripe = this.stripe(key);
+		synchronized(stripe) {
+			return stripe.add(key);
+		}
+	}
+
+	public boolean contains(long key) {
+		LongHashSet stripe = this.stripe(key);
+		synchronized(stripe) {
+			return stripe.contains(key);
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for(LongHashSet stripe : this.stripes) {
+			synchronized(stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+}
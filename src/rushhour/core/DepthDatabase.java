@@ -0,0 +1,227 @@
+package rushhour.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only, memory-mapped table of exact depths for 6x6 boards, as written
+ * by DepthDatabaseBuilder. Boards are keyed by what is on each of the 36 cells
+ * rather than by car order, so a board read from any puzzle file finds its
+ * entry. Each entry holds the board's depth and one move that takes it a step
+ * closer to a solution, so looking up a depth is a single probe and a whole
+ * optimal solution is one probe per move.
+ *
+ * File layout: a header (magic, version, number of slots, number of entries)
+ * followed by an open-addressing hash table of fixed-size slots, each the two
+ * key longs and an int of payload. An all-zero key marks an empty slot; real
+ * keys always contain the VIP, so are never zero.
+ */
+public class DepthDatabase {
+
+	public static final int SIZE = 6;
+	// property naming the database that getDefault() opens
+	public static final String DEFAULT_PROPERTY = "rushhour.depthdb";
+
+	static final int MAGIC = 0x52484442; // "RHDB"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+	static final int SLOT_BYTES = 20;
+	// slots per mapped segment, keeping each segment under the 2GB mapping limit
+	static final int SEGMENT_SLOTS = 1 << 26;
+
+	// cell codes, 3 bits each
+	private static final int BODY = 1;
+	private static final int HORIZONTAL_2 = 2, HORIZONTAL_3 = 3;
+	private static final int VERTICAL_2 = 4, VERTICAL_3 = 5;
+	private static final int VIP_2 = 6, VIP_3 = 7;
+	// cells packed into the first key long
+	private static final int LOW_CELLS = 21;
+
+	private static DepthDatabase defaultDatabase;
+	private static boolean defaultLoaded;
+
+	private final long numSlots;
+	private final long numEntries;
+	private final MappedByteBuffer[] segments;
+
+	public DepthDatabase(File file) {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IllegalArgumentException(file + " is not a depth database");
+			}
+			this.numSlots = header.getLong(8);
+			this.numEntries = header.getLong(16);
+			this.segments = mapSegments(channel, FileChannel.MapMode.READ_ONLY, this.numSlots);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * The database named by the rushhour.depthdb system property, opened the
+	 * first time it's asked for, or null if the property isn't set.
+	 */
+	public static synchronized DepthDatabase getDefault() {
+		if(!defaultLoaded) {
+			String path = System.getProperty(DEFAULT_PROPERTY);
+			if(path != null) {
+				defaultDatabase = new DepthDatabase(new File(path));
+			}
+			defaultLoaded = true;
+		}
+		return defaultDatabase;
+	}
+
+	public long size() {
+		return this.numEntries;
+	}
+
+	public boolean contains(Board board) {
+		return this.payload(board) != -1;
+	}
+
+	/**
+	 * The board's depth, or -1 if it isn't in the database (it isn't 6x6, was
+	 * left out of the build, or can't reach a solution).
+	 */
+	public int getDepthOfBoard(Board board) {
+		int payload = this.payload(board);
+		if(payload == -1) {
+			return -1;
+		}
+		return payload >>> 16;
+	}
+
+	/**
+	 * A move taking the board one step closer to a solution, or null if it is
+	 * solved or not in the database.
+	 */
+	public Move nextMove(Board board) {
+		int payload = this.payload(board);
+		if(payload == -1 || (payload >>> 16) == 0) {
+			return null;
+		}
+		int cell = (payload >>> 8) & 0xff;
+		int vector = (byte)payload;
+		List<Car> cars = board.getCars();
+		for(int i = 0; i < cars.size(); i++) {
+			Car car = cars.get(i);
+			if(car.y*SIZE + car.x == cell) {
+				return new Move(i, vector);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * An optimal solution, found by following nextMove() from the board, or
+	 * null if the board isn't in the database.
+	 */
+	public List<Move> movesToNearestSolution(Board board) {
+		if(!this.contains(board)) {
+			return null;
+		}
+		List<Move> moves = new ArrayList<Move>();
+		Board current = board.copy();
+		Move move;
+		while((move = this.nextMove(current)) != null) {
+			moves.add(move);
+			current.move(move);
+		}
+		return moves;
+	}
+
+	private int payload(Board board) {
+		if(board.getWidth() != SIZE || board.getHeight() != SIZE) {
+			return -1;
+		}
+		long[] key = new long[2];
+		CarLayout layout = board.getLayout();
+		if(!key(layout, layout.encode(board), key)) {
+			return -1;
+		}
+		for(long slot = slot(key, this.numSlots); ; slot = (slot + 1) & (this.numSlots - 1)) {
+			MappedByteBuffer segment = this.segments[(int)(slot / SEGMENT_SLOTS)];
+			int offset = (int)(slot % SEGMENT_SLOTS) * SLOT_BYTES;
+			long key0 = segment.getLong(offset);
+			long key1 = segment.getLong(offset + 8);
+			if(key0 == key[0] && key1 == key[1]) {
+				return segment.getInt(offset + 16);
+			}
+			if(key0 == 0L && key1 == 0L) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Writes the cell-by-cell key of a 6x6 state into key[0..1]: 3 bits per
+	 * cell, giving the kind of car whose top-left square is there, BODY for
+	 * the rest of a car, or 0 if empty. Returns false if the layout has a car
+	 * the key can't describe (longer than 3, or a vertical VIP).
+	 */
+	static boolean key(CarLayout layout, long state, long[] key) {
+		key[0] = 0L;
+		key[1] = 0L;
+		for(int car = 0; car < layout.numCars(); car++) {
+			int length = layout.length(car);
+			boolean horizontal = layout.isHorizontal(car);
+			if(length < 2 || length > 3 || (car == 0 && !horizontal)) {
+				return false;
+			}
+			int pos = layout.position(state, car);
+			int x = horizontal ? pos : layout.lane(car);
+			int y = horizontal ? layout.lane(car) : pos;
+			int head;
+			if(car == 0) {
+				head = length == 2 ? VIP_2 : VIP_3;
+			} else if(horizontal) {
+				head = length == 2 ? HORIZONTAL_2 : HORIZONTAL_3;
+			} else {
+				head = length == 2 ? VERTICAL_2 : VERTICAL_3;
+			}
+			for(int i = 0; i < length; i++) {
+				int cell = horizontal ? y*SIZE + x + i : (y + i)*SIZE + x;
+				setCell(key, cell, i == 0 ? head : BODY);
+			}
+		}
+		return true;
+	}
+
+	private static void setCell(long[] key, int cell, long code) {
+		if(cell < LOW_CELLS) {
+			key[0] |= code << (3 * cell);
+		} else {
+			key[1] |= code << (3 * (cell - LOW_CELLS));
+		}
+	}
+
+	static int compare(long[] a, long[] b) {
+		int c = Long.compareUnsigned(a[1], b[1]);
+		return c != 0 ? c : Long.compareUnsigned(a[0], b[0]);
+	}
+
+	static long slot(long[] key, long numSlots) {
+		return CarLayout.mix(key[0] ^ CarLayout.mix(key[1])) & (numSlots - 1);
+	}
+
+	static MappedByteBuffer[] mapSegments(FileChannel channel, FileChannel.MapMode mode, long numSlots) throws IOException {
+		int numSegments = (int)((numSlots + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS);
+		MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+		for(int i = 0; i < numSegments; i++) {
+			long first = (long)i * SEGMENT_SLOTS;
+			long slots = Math.min(SEGMENT_SLOTS, numSlots - first);
+			segments[i] = channel.map(mode, HEADER_BYTES + first * SLOT_BYTES, slots * SLOT_BYTES);
+		}
+		return segments;
+	}
+
+}
@@ -0,0 +1,211 @@
+package rushhour.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a DepthDatabase by enumerating the 6x6 puzzle space offline. Every
+ * solved configuration (the VIP at the exit, any placement of other cars) is
+ * generated once. A configuration's class is searched only if it is the
+ * smallest solved configuration in it by key, which a BFS can rule out as soon
+ * as it meets a smaller one, so each class is built exactly once without
+ * remembering which classes have been seen. Classes with no solution are never
+ * reached, so they're left out. Entries are streamed to a scratch file, then
+ * hashed into the mapped table.
+ */
+public class DepthDatabaseBuilder {
+
+	private static final int SIZE = DepthDatabase.SIZE;
+
+	private final int maxCars;
+	private DataOutputStream records;
+	private long numClasses;
+	private long numEntries;
+
+	/**
+	 * @param maxCars the most cars (VIP included) a board may have
+	 */
+	public DepthDatabaseBuilder(int maxCars) {
+		this.maxCars = maxCars;
+	}
+
+	public long numClasses() {
+		return this.numClasses;
+	}
+
+	public long numEntries() {
+		return this.numEntries;
+	}
+
+	public void build(File out) throws IOException {
+		File scratch = new File(out.getAbsoluteFile().getParentFile(), out.getName() + ".records");
+		try(DataOutputStream records = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(scratch), 1 << 16))) {
+			this.records = records;
+			List<Car> cars = new ArrayList<Car>();
+			Car vip = new Car(SIZE - 2, (SIZE + 1)/2 - 1, 2, true);
+			cars.add(vip);
+			this.place(0, mask(vip), cars);
+		} finally {
+			this.records = null;
+		}
+		this.writeTable(scratch, out);
+		scratch.delete();
+	}
+
+	/**
+	 * Tries every way of filling the cells from cell onward, recursing in
+	 * row-major order: each free cell is either left empty or becomes the
+	 * top-left square of a new car.
+	 */
+	private void place(int cell, long occupied, List<Car> cars) throws IOException {
+		if(cell == SIZE*SIZE || cars.size() == this.maxCars) {
+			this.process(new Board(SIZE, SIZE, cars));
+			return;
+		}
+		this.place(cell + 1, occupied, cars);
+		if((occupied & (1L << cell)) != 0) {
+			return;
+		}
+		int x = cell % SIZE;
+		int y = cell / SIZE;
+		for(int length = 2; length <= 3; length++) {
+			Car[] candidates = { new Car(x, y, length, true), new Car(x, y, length, false) };
+			for(Car car : candidates) {
+				if((car.horizontal ? x : y) + length > SIZE) {
+					continue;
+				}
+				long mask = mask(car);
+				if((occupied & mask) == 0) {
+					cars.add(car);
+					this.place(cell + 1, occupied | mask, cars);
+					cars.remove(cars.size() - 1);
+				}
+			}
+		}
+	}
+
+	private void process(Board board) throws IOException {
+		CarLayout layout = board.getLayout();
+		long start = layout.encode(board);
+		long[] key = new long[2];
+		DepthDatabase.key(layout, start, key);
+		if(!this.isSmallestSolution(layout, start, key)) {
+			return;
+		}
+		EquivalenceClass graph = new EquivalenceClass(board);
+		long[] states = graph.states();
+		for(int id = 0; id < states.length; id++) {
+			DepthDatabase.key(layout, states[id], key);
+			int payload = graph.depthOf(id) << 16;
+			int move = graph.closerMove(id);
+			if(move != -1) {
+				// name the car by the cell it starts on, since car order isn't part of the key
+				int car = Move.index(move);
+				int pos = layout.position(states[id], car);
+				int cell = layout.isHorizontal(car) ? layout.lane(car)*SIZE + pos : pos*SIZE + layout.lane(car);
+				payload |= (cell << 8) | (move & 0xff);
+			}
+			this.records.writeLong(key[0]);
+			this.records.writeLong(key[1]);
+			this.records.writeInt(payload);
+		}
+		this.numClasses++;
+		this.numEntries += states.length;
+	}
+
+	/**
+	 * BFS out from a solved state, giving up as soon as it finds a solved
+	 * state with a smaller key.
+	 */
+	private boolean isSmallestSolution(CarLayout layout, long start, long[] startKey) {
+		LongHashSet visited = new LongHashSet();
+		LongList queue = new LongList();
+		int[] moves = new int[layout.maxMoves()];
+		long[] key = new long[2];
+		visited.add(start);
+		queue.add(start);
+		for(int i = 0; i < queue.size(); i++) {
+			long state = queue.get(i);
+			int numMoves = layout.generateMoves(state, moves);
+			for(int m = 0; m < numMoves; m++) {
+				long neighbor = layout.apply(state, moves[m]);
+				if(!visited.add(neighbor)) {
+					continue;
+				}
+				if(layout.isSolved(neighbor)) {
+					DepthDatabase.key(layout, neighbor, key);
+					if(DepthDatabase.compare(key, startKey) < 0) {
+						return false;
+					}
+				}
+				queue.add(neighbor);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Hashes the scratch records into a table at most half full.
+	 */
+	private void writeTable(File scratch, File out) throws IOException {
+		long numSlots = 2;
+		while(numSlots < 2 * this.numEntries) {
+			numSlots <<= 1;
+		}
+		out.delete();
+		try(RandomAccessFile raf = new RandomAccessFile(out, "rw");
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(scratch), 1 << 16))) {
+			raf.setLength(DepthDatabase.HEADER_BYTES + numSlots * DepthDatabase.SLOT_BYTES);
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, DepthDatabase.HEADER_BYTES);
+			header.putInt(0, DepthDatabase.MAGIC);
+			header.putInt(4, DepthDatabase.VERSION);
+			header.putLong(8, numSlots);
+			header.putLong(16, this.numEntries);
+			MappedByteBuffer[] segments = DepthDatabase.mapSegments(channel, FileChannel.MapMode.READ_WRITE, numSlots);
+			long[] key = new long[2];
+			for(long n = 0; n < this.numEntries; n++) {
+				key[0] = in.readLong();
+				key[1] = in.readLong();
+				int payload = in.readInt();
+				long slot = DepthDatabase.slot(key, numSlots);
+				while(true) {
+					MappedByteBuffer segment = segments[(int)(slot / DepthDatabase.SEGMENT_SLOTS)];
+					int offset = (int)(slot % DepthDatabase.SEGMENT_SLOTS) * DepthDatabase.SLOT_BYTES;
+					if(segment.getLong(offset) == 0L && segment.getLong(offset + 8) == 0L) {
+						segment.putLong(offset, key[0]);
+						segment.putLong(offset + 8, key[1]);
+						segment.putInt(offset + 16, payload);
+						break;
+					}
+					slot = (slot + 1) & (numSlots - 1);
+				}
+			}
+			header.force();
+			for(MappedByteBuffer segment : segments) {
+				segment.force();
+			}
+		}
+	}
+
+	private static long mask(Car car) {
+		long mask = 0L;
+		for(int i = 0; i < car.length; i++) {
+			int cell = car.horizontal ? car.y*SIZE + car.x + i : (car.y + i)*SIZE + car.x;
+			mask |= 1L << cell;
+		}
+		return mask;
+	}
+
+}
@@ -1,107 +1,235 @@
 package rushhour.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 
 public abstract class DepthGraph extends BoardGraph {
 
+	// property naming a directory to build classes on disk in, for of()
+	public static final String EXTERNAL_PROPERTY = "rushhour.external";
+
 	protected int maxDepth;
-	protected Board farthest;
+	protected Vertex farthest;
+
+	// bucket queue for propogateDepths(): levels.get(d) holds every vertex that
+	// has been given depth d, and the first expanded[d] of them have had their
+	// neighbors relaxed. a vertex whose depth is later lowered stays behind in
+	// its old bucket and is skipped there.
+	private List<List<Vertex>> levels;
+	private int[] expanded;
+	// how many vertices currently sit at each depth, for keeping maxDepth exact
+	private int[] depthCounts;
+
+	protected DepthGraph() {
+		super();
+		this.resetDepths();
+		this.maxDepth = -1;
+	}
 
 	@Override
 	public void clear() {
 		super.clear();
+		this.resetDepths();
 		this.maxDepth = -2;
 		this.farthest = null;
 	}
 
+	private void resetDepths() {
+		this.levels = new ArrayList<>();
+		this.expanded = new int[0];
+		this.depthCounts = new int[0];
+	}
+
+	/**
+	 * The board's whole equivalence class with its depths: from the shared
+	 * EquivalenceClassCache, or, if the rushhour.external property names a
+	 * directory, built on disk in a new directory under it. Callers should
+	 * release() it when done, which deletes anything kept on disk.
+	 */
+	public static DepthGraph of(Board board) {
+		String dir = System.getProperty(EXTERNAL_PROPERTY);
+		if(dir == null) {
+			return board.getEquivalenceClass();
+		}
+		try {
+			File parent = new File(dir);
+			parent.mkdirs();
+			return new ExternalEquivalenceClass(board, Files.createTempDirectory(parent.toPath(), "class").toFile());
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Frees anything the graph holds outside the heap. Does nothing here.
+	 */
+	public void release() {
+	}
+
 	public int maxDepth() {
 		return this.maxDepth;
 	}
 
+	/**
+	 * A fingerprint of the states in the graph, see EquivalenceClass.hash().
+	 */
+	public long hash() {
+		long smallest = Long.MAX_VALUE;
+		long smallestReflected = Long.MAX_VALUE;
+		boolean reflects = this.layout.exitsOnMiddleRow();
+		for(long state : this.states()) {
+			smallest = Math.min(smallest, state);
+			if(reflects) {
+				smallestReflected = Math.min(smallestReflected, this.layout.reflect(state));
+			}
+		}
+		return fingerprint(this.layout, smallest, smallestReflected);
+	}
+
+	/**
+	 * The fingerprint of a set of states of the layout, given the smallest
+	 * of them and the smallest of their reflections (only used when the VIP
+	 * is on the middle row).
+	 */
+	protected static long fingerprint(CarLayout layout, long smallest, long smallestReflected) {
+		long hash = CarLayout.mix(layout.signature() ^ smallest);
+		if(layout.exitsOnMiddleRow()) {
+			hash = Math.min(hash, CarLayout.mix(layout.reflect().signature() ^ smallestReflected));
+		}
+		return hash;
+	}
+
 	public int getDepthOfBoard(Board b) {
 		return this.getVertex(b).depth;
 	}
 
 	public Board getFarthest() {
-		return this.farthest;
+		if(this.farthest == null) {
+			return null;
+		}
+		return this.farthest.getBoard();
 	}
 
 	protected void addSolutions(Board solvedBoard) {
+		this.addSolutions(this.addVertex(solvedBoard));
+	}
+
+	/**
+	 * Marks the connected component of solved states containing source as
+	 * depth 0. Safe to call in the middle of propogateDepths(): the component
+	 * lands in the depth 0 bucket, and propagation picks up from there.
+	 */
+	protected void addSolutions(Vertex source) {
 		// System.err.print("-,");
-		Vertex source = new Vertex(solvedBoard);
-		this.vertices.put(solvedBoard.hash(), source);
-		this.solutions.add(source.board.hash());
+		this.solutions.add(source.state);
+		this.setDepth(source, 0);
 		// find rest of solutions within this connected component
 		LinkedList<Vertex> queue = new LinkedList<>();
 		queue.offer(source);
 		while(!queue.isEmpty()) {
 			Vertex current = queue.poll();
-			current.depth = 0;
-			LinkedList<Edge> newVertices = current.expand();
-			if(newVertices == null) {
-				continue;
-			}
-			for(Edge edge : newVertices) {
-				Board neighborBoard = edge.vertex.board;
-				if(neighborBoard.isSolved()) {
-					this.solutions.add(neighborBoard.hash());
+			current.expand();
+			for(Edge edge : current.neighbors) {
+				if(edge.vertex.isSolved() && edge.vertex.depth != 0) {
+					this.solutions.add(edge.vertex.state);
+					this.setDepth(edge.vertex, 0);
 					queue.offer(edge.vertex);
 				}
 			}
 		}
 	}
 
+	private void setDepth(Vertex vertex, int depth) {
+		if(vertex.depth >= 0) {
+			this.depthCounts[vertex.depth]--;
+		}
+		vertex.depth = depth;
+		while(this.levels.size() <= depth) {
+			this.levels.add(new ArrayList<Vertex>());
+		}
+		if(this.depthCounts.length <= depth) {
+			this.depthCounts = Arrays.copyOf(this.depthCounts, this.levels.size() * 2);
+			this.expanded = Arrays.copyOf(this.expanded, this.levels.size() * 2);
+		}
+		this.levels.get(depth).add(vertex);
+		this.depthCounts[depth]++;
+	}
+
+	/**
+	 * Multi-source BFS outward from the solved states, giving a depth to every
+	 * state within toDepth moves of a solution (or all of them, if toDepth is
+	 * -1). Depths are settled one bucket at a time, each expanded in one go by
+	 * expandAll(). Solved states found along the way are merged into the
+	 * depth 0 bucket, and anything they bring closer is relaxed again, so
+	 * nothing is ever restarted. Unexpanded buckets are kept, so calling this
+	 * again with a deeper bound carries on from where the last call stopped.
+	 */
 	public void propogateDepths(int toDepth) {
 		// System.err.print("0,");
-		LinkedList<Vertex> queue = new LinkedList<>();
-		boolean again;
-		do {
-			again = false;
-			this.maxDepth = 0;
-			queue.clear();
-			for(long hash : this.solutions) {
-				Vertex vertex = this.vertices.get(hash);
-				queue.offer(vertex);
-				vertex.depth = 0;
+		int depth = 0;
+		while(depth < this.levels.size() && (depth < toDepth || toDepth == -1)) {
+			List<Vertex> bucket = this.levels.get(depth);
+			if(this.expanded[depth] == bucket.size()) {
+				depth++;
+				continue;
+			}
+			// the not-yet-expanded vertices still at this depth
+			List<Vertex> level = new ArrayList<>();
+			for(Vertex vertex : bucket.subList(this.expanded[depth], bucket.size())) {
+				if(vertex.depth == depth) {
+					level.add(vertex);
+				}
 			}
-mainloop:	while(!queue.isEmpty()) {
-				Vertex current = queue.poll();
-				if(current.depth < toDepth || toDepth == -1) {
-					// knit its neighbors into the graph
-					current.expand();
-					// then propogate the depths outward from current
-					for(Edge edge : current.neighbors) {
-						Vertex neighborVertex = edge.vertex;
-						Board neighborBoard = neighborVertex.board;
-						if(neighborVertex.depth == -2) {
-							// check if it's in a new connected component of solutions
-							if(neighborBoard.isSolved()) {
-								// if it's not, then we need to add this component and start over
-								again = true;
-								this.addSolutions(neighborBoard);
-								break mainloop;
-							}
-							// propogate depth
-							neighborVertex.depth = current.depth + 1;
-							// update maxDepth and farthest
-							if(this.maxDepth < neighborVertex.depth) {
-								this.maxDepth = neighborVertex.depth;
-								this.farthest = neighborVertex.board;
-								// System.err.print(this.maxDepth + ",");
-							}
-							queue.offer(neighborVertex);
-						}
+			this.expanded[depth] = bucket.size();
+			// knit the whole level's neighbors into the graph
+			this.expandAll(level);
+			// then propogate the depths outward from it
+			boolean merged = false;
+			for(Vertex current : level) {
+				for(Edge edge : current.neighbors) {
+					Vertex neighborVertex = edge.vertex;
+					if(neighborVertex.depth == -2 && neighborVertex.isSolved()) {
+						// a new connected component of solutions: merge it in as more sources
+						this.addSolutions(neighborVertex);
+						merged = true;
+					} else if(neighborVertex.depth == -2 || neighborVertex.depth > depth + 1) {
+						this.setDepth(neighborVertex, depth + 1);
 					}
 				}
 			}
-		} while(again);
+			// new sources go back to the start of the queue
+			if(merged) {
+				depth = 0;
+			}
+		}
+		// update maxDepth and farthest
+		this.maxDepth = this.levels.size() - 1;
+		while(this.maxDepth >= 0 && this.depthCounts[this.maxDepth] == 0) {
+			this.maxDepth--;
+		}
+		this.farthest = null;
+		if(this.maxDepth >= 0) {
+			for(Vertex vertex : this.levels.get(this.maxDepth)) {
+				if(vertex.depth == this.maxDepth) {
+					this.farthest = vertex;
+					break;
+				}
+			}
+		}
 	}
 
 	public Board getOneBoardCloser(Board board) {
 		Vertex v = this.getVertex(board);
+		v.expand();
 		for(Edge edge : v.neighbors) {
-			if(edge.vertex.depth < v.depth) {
-				return edge.vertex.board;
+			if(edge.vertex.depth < v.depth && edge.vertex.depth >= 0) {
+				return edge.vertex.getBoard();
 			}
 		}
 		return null;
@@ -5,74 +5,396 @@ import java.util.HashSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Collections;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 public class EquivalenceClass extends DepthGraph {
 
+	// compressed-sparse-row form of the graph, built by freeze().
+	// a state's id is its index in the sorted states array; the edges out of
+	// id i are offsets[i] until offsets[i+1] in targets (neighbor ids) and moves
+	// (packed, see Move.pack()). depths are stored as unsigned depth+2 so that
+	// the unreached marker -2 fits, in chars, since larger boards can have
+	// classes deeper than a byte holds.
+	private static final VarHandle DEPTHS = MethodHandles.arrayElementVarHandle(char[].class);
+	private long[] states;
+	private int[] offsets;
+	private int[] targets;
+	private short[] moves;
+	private char[] depths;
+	private int farthestId = -1;
+	// where propogateDepths() stopped: the level it got to, and the states
+	// first reached there, which haven't been expanded yet
+	private long[] frontier;
+	private int level;
+	// every state reachable from the starting board, until freeze()
+	private long[] discovered;
+	// the layout's mirror renumbering (see CarLayout.mirrorPermutation()), or
+	// null. if the class holds the mirror image of every state in it, only the
+	// smaller state of each pair is kept (mirrored is set), which is safe
+	// because a state and its image have the same depth and their moves
+	// correspond one to one.
+	private int[] mirror;
+	private volatile boolean mirrored;
+	// hash(), once it has been asked for
+	private long hash;
+
 	public EquivalenceClass(Board startingBoard) {
 		super();
+		this.layout = startingBoard.getLayout();
 		this.maxDepth = -1;
-		Vertex startingVertex = new Vertex(startingBoard);
-		this.vertices.put(startingBoard.hash(), startingVertex);
-		LinkedList<Vertex> queue = new LinkedList<Vertex>();
-		queue.offer(startingVertex);
-		while(!queue.isEmpty()) {
-			Vertex current = queue.poll();
-			// check if it's a solution
-			if(current.board.isSolved()) {
-				current.depth = 0;
-				this.maxDepth = 0;
-				this.solutions.add(current.board.hash());
+		this.discover(this.layout.encode(startingBoard));
+		this.freeze();
+		this.propogateDepths(-1);
+	}
+
+	/**
+	 * Level-synchronous BFS out from the starting state. Each level is expanded
+	 * across all cores, with a shared concurrent visited set deciding which
+	 * thread gets to claim a newly-found state, and the states each thread
+	 * claimed are merged into the next level. A state whose mirror image was
+	 * already claimed isn't claimed again, which also tells us the class is
+	 * its own mirror image.
+	 */
+	private void discover(long start) {
+		final CarLayout layout = this.layout;
+		final ConcurrentLongHashSet visited = new ConcurrentLongHashSet();
+		final int[] mirror = layout.mirrorPermutation(start);
+		this.mirror = mirror;
+		LongList all = new LongList();
+		LongList frontier = new LongList();
+		visited.add(start);
+		if(mirror != null && layout.mirror(start, mirror) == start) {
+			this.mirrored = true;
+		}
+		frontier.add(start);
+		while(!frontier.isEmpty()) {
+			all.addAll(frontier);
+			final long[] level = frontier.toArray();
+			final LongList next = new LongList();
+			ParallelRange.run(level.length, new ParallelRange.Body() {
+				public void run(int from, int to) {
+					int[] moves = new int[layout.maxMoves()];
+					LongList claimed = new LongList();
+					for(int i = from; i < to; i++) {
+						int numMoves = layout.generateMoves(level[i], moves);
+						for(int m = 0; m < numMoves; m++) {
+							long neighbor = layout.apply(level[i], moves[m]);
+							if(mirror != null) {
+								long image = layout.mirror(neighbor, mirror);
+								if(image == neighbor || visited.contains(image)) {
+									EquivalenceClass.this.mirrored = true;
+									if(image != neighbor) {
+										continue;
+									}
+								}
+							}
+							if(visited.add(neighbor)) {
+								claimed.add(neighbor);
+							}
+						}
+					}
+					synchronized(next) {
+						next.addAll(claimed);
+					}
+				}
+			});
+			frontier = next;
+		}
+		this.discovered = all.toArray();
+	}
+
+	/**
+	 * Lays the discovered states out in compressed sparse row form: flat
+	 * arrays of sorted states, edge offsets, neighbor ids and packed moves, plus
+	 * one byte of depth per state. No per-state objects are kept, and every
+	 * query below runs on these arrays. Does nothing if already frozen.
+	 */
+	public void freeze() {
+		if(this.isFrozen()) {
+			return;
+		}
+		final CarLayout layout = this.layout;
+		final int[] mirror = this.mirrored ? this.mirror : null;
+		final long[] states = this.canonicalStates(this.discovered, mirror);
+		// count each state's moves, then lay the edges out end to end
+		final int[] offsets = new int[states.length + 1];
+		ParallelRange.run(states.length, new ParallelRange.Body() {
+			public void run(int from, int to) {
+				int[] moves = new int[layout.maxMoves()];
+				for(int id = from; id < to; id++) {
+					offsets[id+1] = layout.generateMoves(states[id], moves);
+				}
 			}
-			// knit its neighbors into the graph
-			LinkedList<Edge> newVertices = current.expand();
-			// and add the unseen neighbors to the queue
-			for(Edge edge : newVertices) {
-				queue.offer(edge.vertex);
+		});
+		for(int id = 0; id < states.length; id++) {
+			offsets[id+1] += offsets[id];
+		}
+		final int[] targets = new int[offsets[states.length]];
+		final short[] edgeMoves = new short[offsets[states.length]];
+		ParallelRange.run(states.length, new ParallelRange.Body() {
+			public void run(int from, int to) {
+				int[] moves = new int[layout.maxMoves()];
+				for(int id = from; id < to; id++) {
+					int numMoves = layout.generateMoves(states[id], moves);
+					for(int m = 0; m < numMoves; m++) {
+						int e = offsets[id] + m;
+						targets[e] = Arrays.binarySearch(states, layout.canonical(layout.apply(states[id], moves[m]), mirror));
+						edgeMoves[e] = (short)moves[m];
+					}
+				}
+			}
+		});
+		for(long state : states) {
+			if(layout.isSolved(state)) {
+				this.solutions.add(state);
 			}
 		}
-		this.propogateDepths(-1);
+		this.states = states;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.moves = edgeMoves;
+		this.depths = new char[states.length];
+		this.discovered = null;
+	}
+
+	// sorted and distinct, keeping the smaller of each mirror pair if given a
+	// permutation. both of a pair can turn up when threads race to claim them.
+	private long[] canonicalStates(long[] discovered, int[] mirror) {
+		if(mirror == null) {
+			Arrays.sort(discovered);
+			return discovered;
+		}
+		for(int i = 0; i < discovered.length; i++) {
+			discovered[i] = this.layout.canonical(discovered[i], mirror);
+		}
+		Arrays.sort(discovered);
+		int n = 0;
+		for(int i = 0; i < discovered.length; i++) {
+			if(n == 0 || discovered[i] != discovered[n-1]) {
+				discovered[n++] = discovered[i];
+			}
+		}
+		return n == discovered.length ? discovered : Arrays.copyOf(discovered, n);
 	}
 
+	/**
+	 * Multi-source BFS inward from every solved state, one level at a time,
+	 * with each level's edges scanned across all cores. A thread marks a
+	 * state with a compare-and-set, so exactly one thread claims it, and the
+	 * states each thread claimed are merged into the next level, so the whole
+	 * propagation touches each state and edge once. Only states within
+	 * toDepth moves of a solution get a depth, unless toDepth is -1. The
+	 * last level is kept, so calling this again with a deeper bound carries
+	 * on from where the last call stopped, as DepthGraph's does.
+	 */
+	@Override
+	public void propogateDepths(int toDepth) {
+		final char[] depths = this.depths;
+		final int[] offsets = this.offsets;
+		final int[] targets = this.targets;
+		if(this.frontier == null) {
+			Arrays.fill(depths, (char)0);
+			this.frontier = new long[this.solutions.size()];
+			int n = 0;
+			for(long state : this.solutions.toArray()) {
+				this.frontier[n++] = this.idOf(state);
+			}
+			for(long id : this.frontier) {
+				depths[(int)id] = 2;
+			}
+			this.level = 0;
+			this.maxDepth = this.frontier.length == 0 ? -1 : 0;
+			this.farthestId = -1;
+		}
+		long[] frontier = this.frontier;
+		int level = this.level;
+		for(; frontier.length > 0 && (toDepth == -1 || level < toDepth); level++) {
+			if(level + 1 + 2 > Character.MAX_VALUE) {
+				throw new IllegalStateException("depths over " + (Character.MAX_VALUE - 2) + " don't fit");
+			}
+			final long[] current = frontier;
+			final char reached = (char)(level + 1 + 2);
+			final LongList next = new LongList();
+			ParallelRange.run(current.length, new ParallelRange.Body() {
+				public void run(int from, int to) {
+					LongList claimed = new LongList();
+					for(int i = from; i < to; i++) {
+						int id = (int)current[i];
+						for(int e = offsets[id]; e < offsets[id+1]; e++) {
+							int target = targets[e];
+							if(depths[target] == 0 && DEPTHS.compareAndSet(depths, target, (char)0, reached)) {
+								claimed.add(target);
+							}
+						}
+					}
+					synchronized(next) {
+						next.addAll(claimed);
+					}
+				}
+			});
+			frontier = next.toArray();
+			if(frontier.length > 0) {
+				this.maxDepth = level + 1;
+				// the order threads merged in varies, so pick the smallest id
+				long farthest = frontier[0];
+				for(long id : frontier) {
+					farthest = Math.min(farthest, id);
+				}
+				this.farthestId = (int)farthest;
+			}
+		}
+		this.frontier = frontier;
+		this.level = level;
+	}
+
+	public boolean isFrozen() {
+		return this.states != null;
+	}
+
+	private int idOf(long state) {
+		return Arrays.binarySearch(this.states, this.layout.canonical(state, this.mirrored ? this.mirror : null));
+	}
+
+	/**
+	 * Whether only the smaller state of each mirror pair is kept, in which
+	 * case size() and states() count each pair once.
+	 */
+	public boolean isMirrored() {
+		return this.mirrored;
+	}
+
+	// the move that does to state what the move on edge e does to its stored
+	// representative, which is the state or its mirror image
+	private int moveFrom(long state, int id, int e) {
+		if(this.states[id] == state) {
+			return this.moves[e];
+		}
+		return this.layout.mirrorMove(this.moves[e], this.mirror);
+	}
+
+	// whether the state is in the class, for a state of the same layout
+	boolean contains(long state) {
+		return this.idOf(state) >= 0;
+	}
+
+	public boolean contains(Board b) {
+		return b.getLayout().equals(this.layout) && this.contains(this.layout.encode(b));
+	}
+
+	int depthOf(int id) {
+		return this.depths[id] - 2;
+	}
+
+	// the first neighbor one move closer to a solution
+	private int closerEdge(int id) {
+		for(int e = this.offsets[id]; e < this.offsets[id+1]; e++) {
+			if(this.depthOf(this.targets[e]) == this.depthOf(id) - 1) {
+				return e;
+			}
+		}
+		return -1;
+	}
+
+	// the packed move along closerEdge(), or -1 at a solution
+	int closerMove(int id) {
+		int e = this.closerEdge(id);
+		return e == -1 ? -1 : this.moves[e];
+	}
+
+	@Override
+	public int size() {
+		return this.states.length;
+	}
+
+	public int numEdges() {
+		return this.targets.length;
+	}
+
+	@Override
+	public long[] states() {
+		return this.states.clone();
+	}
+
+	@Override
+	public int getDepthOfBoard(Board b) {
+		return this.depthOf(this.idOf(this.layout.encode(b)));
+	}
+
+	@Override
+	public Board getFarthest() {
+		if(this.farthestId == -1) {
+			return null;
+		}
+		return this.layout.toBoard(this.states[this.farthestId]);
+	}
+
+	@Override
+	public Board getOneBoardCloser(Board board) {
+		long state = this.layout.encode(board);
+		int id = this.idOf(state);
+		int e = this.closerEdge(id);
+		if(e == -1) {
+			return null;
+		}
+		return this.layout.toBoard(this.layout.apply(state, this.moveFrom(state, id, e)));
+	}
+
+	/**
+	 * A fingerprint of the class. States are only comparable within a
+	 * layout, so the layout is folded in too. When the VIP is on the middle
+	 * row, the class read from a reflected puzzle file (the same cars in the
+	 * same order, turned upside down) has the same depths, so the hash is
+	 * taken over whichever of the two orientations comes out smaller.
+	 */
+	@Override
 	public long hash() {
-		return Collections.min(this.vertices.keySet());
+		if(this.hash != 0L) {
+			return this.hash;
+		}
+		long smallest = Long.MAX_VALUE;
+		if(this.layout.exitsOnMiddleRow()) {
+			for(long state : this.states) {
+				smallest = Math.min(smallest, this.layout.reflect(state));
+				if(this.mirrored) {
+					smallest = Math.min(smallest, this.layout.reflect(this.layout.mirror(state, this.mirror)));
+				}
+			}
+		}
+		this.hash = fingerprint(this.layout, this.states[0], smallest);
+		return this.hash;
 	}
 
 	public List<Move> movesToNearestSolution(Board b) {
-		Vertex v = this.getVertex(b);
 		List<Move> moves = new ArrayList<Move>();
-		Vertex current = v;
-		while(current.depth != 0) {
-			for(Edge edge : current.neighbors) {
-				if(edge.vertex.depth == current.depth - 1) {
-					moves.add(edge.move);
-					current = edge.vertex;
-					break;
-				}
-			}
+		long state = this.layout.encode(b);
+		int current = this.idOf(state);
+		while(this.depthOf(current) > 0) {
+			int e = this.closerEdge(current);
+			int move = this.moveFrom(state, current, e);
+			moves.add(Move.unpack(move));
+			state = this.layout.apply(state, move);
+			current = this.targets[e];
 		}
 		return moves;
 	}
 
 	public List<Board> pathToNearestSolution(Board b) {
-		Vertex v = this.getVertex(b);
 		List<Board> path = new ArrayList<Board>();
-		Vertex current = v;
-		while(current.depth != 0) {
-			for(Edge edge : current.neighbors) {
-				Vertex neighbor = edge.vertex;
-				if(neighbor.depth == current.depth - 1) {
-					path.add(neighbor.board);
-					current = neighbor;
-					break;
-				}
-			}
+		long state = this.layout.encode(b);
+		int current = this.idOf(state);
+		while(this.depthOf(current) > 0) {
+			int e = this.closerEdge(current);
+			state = this.layout.apply(state, this.moveFrom(state, current, e));
+			current = this.targets[e];
+			path.add(this.layout.toBoard(state));
 		}
 		return path;
 	}
 
 }
-
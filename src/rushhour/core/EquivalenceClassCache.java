@@ -0,0 +1,174 @@
+package rushhour.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Process-wide cache of equivalence classes, so that boards from the same
+ * class (the same puzzle re-read, or any position reachable from it) share one
+ * build. A board finds its class by layout, then by binary search for its
+ * exact state in each cached class of that layout, which is no more than the
+ * class needs to answer a depth query anyway.
+ *
+ * The cache holds at most maxStates states across its classes, evicting the
+ * least recently used class first; a class bigger than that is built and
+ * returned but not kept. Lookups are thread-safe, and single-flight: which
+ * class a board is in isn't known until a class containing it is built, so a
+ * thread asking for a board while another builds a class of the same layout
+ * waits for that build, and only starts its own if the board isn't in it.
+ * Builds of one layout are therefore one at a time, which costs little since
+ * each build already runs across all cores.
+ *
+ * Cached classes are shared, so they must be treated as read-only: calling
+ * propogateDepths() on one would change it for everyone holding it.
+ */
+public class EquivalenceClassCache {
+
+	// property giving the shared cache's size in states
+	public static final String SIZE_PROPERTY = "rushhour.classcache.states";
+	// about 90 bytes each, counting edges
+	public static final long DEFAULT_MAX_STATES = 1L << 21;
+
+	private static EquivalenceClassCache shared;
+
+	private final long maxStates;
+	private long numStates;
+	// every cached class, least recently used first
+	private final LinkedHashMap<EquivalenceClass, Boolean> recent = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<CarLayout, List<EquivalenceClass>> byLayout = new HashMap<>();
+	// builds in progress, by layout
+	private final Map<CarLayout, CompletableFuture<EquivalenceClass>> building = new HashMap<>();
+	private long hits;
+	private long misses;
+
+	public EquivalenceClassCache(long maxStates) {
+		this.maxStates = maxStates;
+	}
+
+	/**
+	 * The cache Board.getEquivalenceClass() uses, sized by the
+	 * rushhour.classcache.states property.
+	 */
+	public static synchronized EquivalenceClassCache getShared() {
+		if(shared == null) {
+			shared = new EquivalenceClassCache(Long.getLong(SIZE_PROPERTY, DEFAULT_MAX_STATES));
+		}
+		return shared;
+	}
+
+	public EquivalenceClass get(Board board) {
+		CarLayout layout = board.getLayout();
+		long state = layout.encode(board);
+		CompletableFuture<EquivalenceClass> pending;
+		while(true) {
+			synchronized(this) {
+				EquivalenceClass cached = this.find(layout, state);
+				if(cached != null) {
+					this.hits++;
+					return cached;
+				}
+				pending = this.building.get(layout);
+				if(pending == null) {
+					pending = new CompletableFuture<EquivalenceClass>();
+					this.building.put(layout, pending);
+					this.misses++;
+					break;
+				}
+			}
+			EquivalenceClass built;
+			try {
+				built = pending.join();
+			} catch(CompletionException e) {
+				// the building thread has already thrown the cause itself
+				throw new IllegalStateException("building the equivalence class failed", e.getCause());
+			}
+			// it may be too big to have been kept
+			if(built.contains(state)) {
+				synchronized(this) {
+					this.hits++;
+				}
+				return built;
+			}
+		}
+		EquivalenceClass graph;
+		try {
+			graph = new EquivalenceClass(board);
+		} catch(RuntimeException | Error e) {
+			synchronized(this) {
+				this.building.remove(layout);
+			}
+			pending.completeExceptionally(e);
+			throw e;
+		}
+		synchronized(this) {
+			this.add(graph);
+			this.building.remove(layout);
+		}
+		pending.complete(graph);
+		return graph;
+	}
+
+	public synchronized long numStates() {
+		return this.numStates;
+	}
+
+	public synchronized int numClasses() {
+		return this.recent.size();
+	}
+
+	public synchronized long hits() {
+		return this.hits;
+	}
+
+	public synchronized long misses() {
+		return this.misses;
+	}
+
+	public synchronized void clear() {
+		this.recent.clear();
+		this.byLayout.clear();
+		this.numStates = 0;
+	}
+
+	private EquivalenceClass find(CarLayout layout, long state) {
+		List<EquivalenceClass> classes = this.byLayout.get(layout);
+		if(classes == null) {
+			return null;
+		}
+		for(EquivalenceClass graph : classes) {
+			if(graph.contains(state)) {
+				// touch it, for the LRU order
+				this.recent.get(graph);
+				return graph;
+			}
+		}
+		return null;
+	}
+
+	private void add(EquivalenceClass graph) {
+		if(graph.size() > this.maxStates) {
+			return;
+		}
+		this.recent.put(graph, Boolean.TRUE);
+		this.byLayout.computeIfAbsent(graph.layout, k -> new ArrayList<EquivalenceClass>()).add(graph);
+		this.numStates += graph.size();
+		Iterator<EquivalenceClass> oldest = this.recent.keySet().iterator();
+		while(this.numStates > this.maxStates) {
+			EquivalenceClass evicted = oldest.next();
+			oldest.remove();
+			List<EquivalenceClass> classes = this.byLayout.get(evicted.layout);
+			classes.remove(evicted);
+			if(classes.isEmpty()) {
+				this.byLayout.remove(evicted.layout);
+			}
+			this.numStates -= evicted.size();
+		}
+	}
+
+}
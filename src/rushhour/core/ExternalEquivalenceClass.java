@@ -0,0 +1,496 @@
+package rushhour.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Equivalence class whose states live on disk instead of the heap, for boards
+ * whose classes don't fit in memory. Both passes are layered BFS: the first
+ * walks out from the starting board to find every state in the class, the
+ * second walks out from all of the solved states to find depths. Each layer
+ * is a file of sorted, distinct packed states. Successors are buffered in
+ * memory, sorted and spilled as runs, and duplicates are only dropped when the
+ * runs are merged (delayed duplicate detection): since moves are reversible,
+ * a successor of layer d can only be in layer d-1, d or d+1, so merging
+ * against the two previous layers is enough. The layer a state ends up in
+ * during the second pass is its depth.
+ *
+ * Only the depth layers are kept, so states() isn't supported: the states
+ * that can't reach a solution are counted, but not stored. The files are
+ * removed by release().
+ */
+public class ExternalEquivalenceClass extends DepthGraph {
+
+	public static final int DEFAULT_RUN_SIZE = 1 << 22;
+
+	private final File workDir;
+	private final int runSize;
+	private int numRuns;
+
+	private long size;
+	private long numSolutions;
+	private long farthestState;
+	// the smallest state in the class, and in its reflection, for hash()
+	private long smallest = Long.MAX_VALUE;
+	private long smallestReflected = Long.MAX_VALUE;
+	// depthLayers.get(d) holds the sorted states at depth d
+	private List<File> depthLayers = new ArrayList<>();
+	// whether the second pass has run out of states
+	private boolean propagated;
+
+	public ExternalEquivalenceClass(Board startingBoard, File workDir) {
+		this(startingBoard, workDir, DEFAULT_RUN_SIZE);
+	}
+
+	/**
+	 * @param workDir directory for the layer and run files
+	 * @param runSize how many states to buffer in memory before spilling a run
+	 */
+	public ExternalEquivalenceClass(Board startingBoard, File workDir, int runSize) {
+		super();
+		this.layout = startingBoard.getLayout();
+		this.workDir = workDir;
+		this.runSize = runSize;
+		workDir.mkdirs();
+		try {
+			// pass 1: every state in the class, collecting the solved ones as we go
+			File start = this.newFile("start");
+			this.writeSorted(new long[] { this.layout.encode(startingBoard) }, 1, start);
+			File unsortedSolutions = this.newFile("solutions-unsorted");
+			try(DataOutputStream solved = openWrite(unsortedSolutions)) {
+				this.discover(start, solved);
+			}
+			File solutions = this.sort(unsortedSolutions);
+			unsortedSolutions.delete();
+			this.numSolutions = count(solutions);
+			if(this.numSolutions > 0) {
+				this.depthLayers.add(solutions);
+				this.maxDepth = 0;
+				this.farthestState = first(solutions);
+			} else {
+				solutions.delete();
+				this.propagated = true;
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		// pass 2
+		this.propogateDepths(-1);
+	}
+
+	public ExternalEquivalenceClass(Board startingBoard) throws IOException {
+		this(startingBoard, Files.createTempDirectory("rushhour-bfs").toFile());
+	}
+
+	/**
+	 * The number of states, which for a class big enough to need the disk
+	 * may not fit in an int.
+	 */
+	public long numStates() {
+		return this.size;
+	}
+
+	/**
+	 * The number of states, or an ArithmeticException if there are more than
+	 * an int holds; see numStates().
+	 */
+	@Override
+	public int size() {
+		return Math.toIntExact(this.size);
+	}
+
+	@Override
+	public long numSolutions() {
+		return this.numSolutions;
+	}
+
+	@Override
+	public Set<Board> solutions() {
+		Set<Board> ret = new HashSet<>();
+		if(this.depthLayers.isEmpty()) {
+			return ret;
+		}
+		File layer = this.depthLayers.get(0);
+		try(DataInputStream in = openRead(layer)) {
+			for(long n = count(layer); n > 0; n--) {
+				ret.add(this.layout.toBoard(in.readLong()));
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return ret;
+	}
+
+	@Override
+	public long[] states() {
+		throw new UnsupportedOperationException("an external class only keeps the states that can reach a solution");
+	}
+
+	@Override
+	public Board getFarthest() {
+		if(this.maxDepth == -1) {
+			return null;
+		}
+		return this.layout.toBoard(this.farthestState);
+	}
+
+	/**
+	 * Looks the board up in each depth layer with a binary search on disk.
+	 * Returns -2 if the board can't reach a solution, like DepthGraph does.
+	 */
+	@Override
+	public int getDepthOfBoard(Board b) {
+		return this.depthOf(this.layout.encode(b));
+	}
+
+	private int depthOf(long state) {
+		try {
+			for(int depth = 0; depth < this.depthLayers.size(); depth++) {
+				if(contains(this.depthLayers.get(depth), state)) {
+					return depth;
+				}
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return -2;
+	}
+
+	@Override
+	public Board getOneBoardCloser(Board board) {
+		long state = this.layout.encode(board);
+		int depth = this.depthOf(state);
+		if(depth <= 0) {
+			return null;
+		}
+		File closer = this.depthLayers.get(depth - 1);
+		int[] moves = new int[this.layout.maxMoves()];
+		int numMoves = this.layout.generateMoves(state, moves);
+		try {
+			for(int m = 0; m < numMoves; m++) {
+				long neighbor = this.layout.apply(state, moves[m]);
+				if(contains(closer, neighbor)) {
+					return this.layout.toBoard(neighbor);
+				}
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return null;
+	}
+
+	/**
+	 * The second pass, one depth layer at a time, out to toDepth (or until it
+	 * runs out of states, if toDepth is -1). Every layer found is kept, so
+	 * calling this again with a deeper bound carries on from the last one.
+	 */
+	@Override
+	public void propogateDepths(int toDepth) {
+		try {
+			while(!this.propagated && (toDepth == -1 || this.maxDepth < toDepth)) {
+				int depth = this.depthLayers.size() - 1;
+				File current = this.depthLayers.get(depth);
+				File previous = depth == 0 ? null : this.depthLayers.get(depth - 1);
+				File next = this.newFile("layer");
+				this.mergeRuns(this.expand(current), next, previous, current);
+				if(count(next) == 0) {
+					next.delete();
+					this.propagated = true;
+				} else {
+					this.depthLayers.add(next);
+					this.maxDepth = depth + 1;
+					this.farthestState = first(next);
+				}
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * The same fingerprint as EquivalenceClass.hash(), from the smallest
+	 * states seen during the first pass.
+	 */
+	@Override
+	public long hash() {
+		return fingerprint(this.layout, this.smallest, this.smallestReflected);
+	}
+
+	/**
+	 * Deletes the layer files.
+	 */
+	@Override
+	public void release() {
+		for(File layer : this.depthLayers) {
+			layer.delete();
+		}
+		this.depthLayers.clear();
+		this.workDir.delete();
+	}
+
+	/**
+	 * BFS out from the sorted states in first, counting them, appending the
+	 * solved ones to solved and noting the smallest. Each layer is deleted
+	 * once the layer after next has been found, since nothing can reach back
+	 * further than that.
+	 */
+	private void discover(File first, DataOutputStream solved) throws IOException {
+		boolean reflects = this.layout.exitsOnMiddleRow();
+		File previous = null;
+		File current = first;
+		while(count(current) > 0) {
+			try(DataInputStream in = openRead(current)) {
+				for(long n = count(current); n > 0; n--) {
+					long state = in.readLong();
+					this.size++;
+					this.smallest = Math.min(this.smallest, state);
+					if(reflects) {
+						this.smallestReflected = Math.min(this.smallestReflected, this.layout.reflect(state));
+					}
+					if(this.layout.isSolved(state)) {
+						solved.writeLong(state);
+					}
+				}
+			}
+			File next = this.newFile("layer");
+			this.mergeRuns(this.expand(current), next, previous, current);
+			if(previous != null) {
+				previous.delete();
+			}
+			previous = current;
+			current = next;
+		}
+		previous.delete();
+		current.delete();
+	}
+
+	/**
+	 * Writes every successor of the layer out as sorted runs.
+	 */
+	private List<File> expand(File layer) throws IOException {
+		List<File> runs = new ArrayList<>();
+		long[] buffer = new long[this.runSize];
+		int[] moves = new int[this.layout.maxMoves()];
+		int n = 0;
+		try(DataInputStream in = openRead(layer)) {
+			for(long remaining = count(layer); remaining > 0; remaining--) {
+				long state = in.readLong();
+				int numMoves = this.layout.generateMoves(state, moves);
+				for(int m = 0; m < numMoves; m++) {
+					if(n == buffer.length) {
+						runs.add(this.spill(buffer, n));
+						n = 0;
+					}
+					buffer[n++] = this.layout.apply(state, moves[m]);
+				}
+			}
+		}
+		if(n > 0) {
+			runs.add(this.spill(buffer, n));
+		}
+		return runs;
+	}
+
+	private File spill(long[] buffer, int n) throws IOException {
+		File run = this.newFile("run");
+		Arrays.sort(buffer, 0, n);
+		this.writeSorted(buffer, n, run);
+		return run;
+	}
+
+	/**
+	 * External sort of a file of unsorted states, dropping duplicates.
+	 */
+	private File sort(File unsorted) throws IOException {
+		List<File> runs = new ArrayList<>();
+		long[] buffer = new long[this.runSize];
+		int n = 0;
+		try(DataInputStream in = openRead(unsorted)) {
+			for(long remaining = count(unsorted); remaining > 0; remaining--) {
+				if(n == buffer.length) {
+					runs.add(this.spill(buffer, n));
+					n = 0;
+				}
+				buffer[n++] = in.readLong();
+			}
+		}
+		runs.add(this.spill(buffer, n));
+		File sorted = this.newFile("sorted");
+		this.mergeRuns(runs, sorted, null, null);
+		return sorted;
+	}
+
+	/**
+	 * K-way merge of sorted runs into out, dropping duplicates and anything
+	 * present in either of the (sorted, possibly null) exclude files. The runs
+	 * are deleted afterwards.
+	 */
+	private void mergeRuns(List<File> runs, File out, File exclude1, File exclude2) throws IOException {
+		PriorityQueue<RunReader> heap = new PriorityQueue<>();
+		RunReader skip1 = exclude1 == null ? null : new RunReader(exclude1);
+		RunReader skip2 = exclude2 == null ? null : new RunReader(exclude2);
+		try(DataOutputStream writer = openWrite(out)) {
+			for(File run : runs) {
+				RunReader reader = new RunReader(run);
+				if(reader.hasNext()) {
+					heap.offer(reader);
+				} else {
+					reader.close();
+				}
+			}
+			boolean any = false;
+			long last = 0L;
+			while(!heap.isEmpty()) {
+				RunReader reader = heap.poll();
+				long state = reader.next();
+				if(reader.hasNext()) {
+					heap.offer(reader);
+				} else {
+					reader.close();
+				}
+				if(any && state == last) {
+					continue;
+				}
+				any = true;
+				last = state;
+				if((skip1 != null && skip1.skipTo(state)) || (skip2 != null && skip2.skipTo(state))) {
+					continue;
+				}
+				writer.writeLong(state);
+			}
+		} finally {
+			for(RunReader reader : heap) {
+				reader.close();
+			}
+			if(skip1 != null) {
+				skip1.close();
+			}
+			if(skip2 != null) {
+				skip2.close();
+			}
+		}
+		for(File run : runs) {
+			run.delete();
+		}
+	}
+
+	private void writeSorted(long[] states, int n, File out) throws IOException {
+		try(DataOutputStream writer = openWrite(out)) {
+			for(int i = 0; i < n; i++) {
+				if(i == 0 || states[i] != states[i-1]) {
+					writer.writeLong(states[i]);
+				}
+			}
+		}
+	}
+
+	private File newFile(String prefix) {
+		return new File(this.workDir, prefix + "-" + (this.numRuns++) + ".bin");
+	}
+
+	private static DataOutputStream openWrite(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	}
+
+	private static DataInputStream openRead(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+	}
+
+	private static long count(File file) {
+		return file.length() / 8;
+	}
+
+	private static long first(File file) throws IOException {
+		try(DataInputStream in = openRead(file)) {
+			return in.readLong();
+		}
+	}
+
+	private static boolean contains(File file, long state) throws IOException {
+		try(RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			long lo = 0;
+			long hi = count(file) - 1;
+			while(lo <= hi) {
+				long mid = (lo + hi) >>> 1;
+				in.seek(mid * 8);
+				long value = in.readLong();
+				if(value < state) {
+					lo = mid + 1;
+				} else if(value > state) {
+					hi = mid - 1;
+				} else {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Streams a sorted file of states, one ahead.
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+		private final DataInputStream in;
+		private long remaining;
+		private long head;
+
+		RunReader(File file) throws IOException {
+			this.in = openRead(file);
+			this.remaining = count(file);
+			this.advance();
+		}
+
+		private void advance() throws IOException {
+			if(this.remaining > 0) {
+				this.head = this.in.readLong();
+			}
+		}
+
+		boolean hasNext() {
+			return this.remaining > 0;
+		}
+
+		long next() throws IOException {
+			long ret = this.head;
+			this.remaining--;
+			this.advance();
+			return ret;
+		}
+
+		/**
+		 * Advances past everything smaller than state, and reports whether
+		 * state itself is present.
+		 */
+		boolean skipTo(long state) throws IOException {
+			while(this.remaining > 0 && this.head < state) {
+				this.next();
+			}
+			return this.remaining > 0 && this.head == state;
+		}
+
+		void close() throws IOException {
+			this.in.close();
+		}
+
+		public int compareTo(RunReader other) {
+			return Long.compare(this.head, other.head);
+		}
+	}
+
+}
@@ -67,6 +67,10 @@ public class Grid {
         return (new Grid(this.width, this.height, newGrid));
 	}
 
+	/**
+	 * Legacy cell-by-cell hash. It overflows and can collide, so it is only kept
+	 * for auditing; use Board.key() or Board.hash() instead.
+	 */
 	public long hash() {
 		long result = 1;
 		for (int i = 0; i < this.height; i++) { // assumes it's a matrix
@@ -0,0 +1,127 @@
+package rushhour.core;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of longs, so that visited sets over packed states don't
+ * box a Long per lookup. Linear probing over a power-of-two table kept at most
+ * half full; zero (a legal state) is tracked separately from empty slots.
+ */
+public class LongHashSet {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private boolean hasZero;
+	private int size;
+
+	public LongHashSet() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongHashSet(int expectedSize) {
+		this.keys = new long[tableSize(expectedSize)];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	// slots in the table, for estimating its memory
+	public int capacity() {
+		return this.keys.length;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public boolean contains(long key) {
+		if(key == 0L) {
+			return this.hasZero;
+		}
+		int mask = this.keys.length - 1;
+		for(int i = slot(key, mask); ; i = (i + 1) & mask) {
+			if(this.keys[i] == key) {
+				return true;
+			} else if(this.keys[i] == 0L) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Adds the key, returning false if it was already present.
+	 */
+	public boolean add(long key) {
+		if(key == 0L) {
+			if(this.hasZero) {
+				return false;
+			}
+			this.hasZero = true;
+			this.size++;
+			return true;
+		}
+		int mask = this.keys.length - 1;
+		int i = slot(key, mask);
+		while(this.keys[i] != 0L) {
+			if(this.keys[i] == key) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		this.keys[i] = key;
+		if(++this.size * 2 > this.keys.length) {
+			this.rehash(this.keys.length * 2);
+		}
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(this.keys, 0L);
+		this.hasZero = false;
+		this.size = 0;
+	}
+
+	public long[] toArray() {
+		long[] ret = new long[this.size];
+		int n = 0;
+		if(this.hasZero) {
+			ret[n++] = 0L;
+		}
+		for(long key : this.keys) {
+			if(key != 0L) {
+				ret[n++] = key;
+			}
+		}
+		return ret;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = this.keys;
+		this.keys = new long[capacity];
+		int mask = capacity - 1;
+		for(long key : oldKeys) {
+			if(key != 0L) {
+				int i = slot(key, mask);
+				while(this.keys[i] != 0L) {
+					i = (i + 1) & mask;
+				}
+				this.keys[i] = key;
+			}
+		}
+	}
+
+	static int tableSize(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while(capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	static int slot(long key, int mask) {
+		return (int)CarLayout.mix(key) & mask;
+	}
+
+}
@@ -0,0 +1,56 @@
+package rushhour.core;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of longs, for collecting states without boxing.
+ */
+public class LongList {
+
+	private long[] elements;
+	private int size;
+
+	public LongList() {
+		this(16);
+	}
+
+	public LongList(int capacity) {
+		this.elements = new long[Math.max(capacity, 1)];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public long get(int i) {
+		return this.elements[i];
+	}
+
+	public void add(long element) {
+		if(this.size == this.elements.length) {
+			this.elements = Arrays.copyOf(this.elements, this.size * 2);
+		}
+		this.elements[this.size++] = element;
+	}
+
+	public void addAll(LongList other) {
+		if(this.size + other.size > this.elements.length) {
+			this.elements = Arrays.copyOf(this.elements, Math.max(this.size + other.size, this.size * 2));
+		}
+		System.arraycopy(other.elements, 0, this.elements, this.size, other.size);
+		this.size += other.size;
+	}
+
+	public void clear() {
+		this.size = 0;
+	}
+
+	public long[] toArray() {
+		return Arrays.copyOf(this.elements, this.size);
+	}
+
+}
@@ -0,0 +1,144 @@
+package rushhour.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Open-addressing map from longs to objects, the map counterpart of
+ * LongHashSet. Null values are not allowed, since get() uses null for missing.
+ */
+public class LongObjectHashMap<V> {
+
+	private long[] keys;
+	private Object[] values;
+	private V zeroValue;
+	private int size;
+
+	public LongObjectHashMap() {
+		this(16);
+	}
+
+	public LongObjectHashMap(int expectedSize) {
+		int capacity = LongHashSet.tableSize(expectedSize);
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	// slots in the table, for estimating its memory
+	public int capacity() {
+		return this.keys.length;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public boolean containsKey(long key) {
+		return this.get(key) != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		if(key == 0L) {
+			return this.zeroValue;
+		}
+		int mask = this.keys.length - 1;
+		for(int i = LongHashSet.slot(key, mask); ; i = (i + 1) & mask) {
+			if(this.keys[i] == key) {
+				return (V)this.values[i];
+			} else if(this.keys[i] == 0L) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Maps key to value, returning the previous value or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if(key == 0L) {
+			V old = this.zeroValue;
+			this.zeroValue = value;
+			if(old == null) {
+				this.size++;
+			}
+			return old;
+		}
+		int mask = this.keys.length - 1;
+		int i = LongHashSet.slot(key, mask);
+		while(this.keys[i] != 0L) {
+			if(this.keys[i] == key) {
+				V old = (V)this.values[i];
+				this.values[i] = value;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		this.keys[i] = key;
+		this.values[i] = value;
+		if(++this.size * 2 > this.keys.length) {
+			this.rehash(this.keys.length * 2);
+		}
+		return null;
+	}
+
+	public void clear() {
+		Arrays.fill(this.keys, 0L);
+		Arrays.fill(this.values, null);
+		this.zeroValue = null;
+		this.size = 0;
+	}
+
+	public long[] keys() {
+		long[] ret = new long[this.size];
+		int n = 0;
+		if(this.zeroValue != null) {
+			ret[n++] = 0L;
+		}
+		for(int i = 0; i < this.keys.length; i++) {
+			if(this.keys[i] != 0L) {
+				ret[n++] = this.keys[i];
+			}
+		}
+		return ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		List<V> ret = new ArrayList<V>(this.size);
+		if(this.zeroValue != null) {
+			ret.add(this.zeroValue);
+		}
+		for(int i = 0; i < this.keys.length; i++) {
+			if(this.keys[i] != 0L) {
+				ret.add((V)this.values[i]);
+			}
+		}
+		return ret;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		int mask = capacity - 1;
+		for(int j = 0; j < oldKeys.length; j++) {
+			if(oldKeys[j] != 0L) {
+				int i = LongHashSet.slot(oldKeys[j], mask);
+				while(this.keys[i] != 0L) {
+					i = (i + 1) & mask;
+				}
+				this.keys[i] = oldKeys[j];
+				this.values[i] = oldValues[j];
+			}
+		}
+	}
+
+}
@@ -11,6 +11,45 @@ public class Move {
         this.vector = vector;
     }
 
+    /**
+     * Packs a move into an int: the car index in the upper bits and the signed
+     * vector in the low byte. Move generators hand out moves in this form so
+     * that searching doesn't allocate a Move per edge.
+     */
+    public static int pack(int index, int vector) {
+        return (index << 8) | (vector & 0xff);
+    }
+
+    public static int index(int packed) {
+        return packed >>> 8;
+    }
+
+    public static int vector(int packed) {
+        return (byte)packed;
+    }
+
+    public static Move unpack(int packed) {
+        return new Move(index(packed), vector(packed));
+    }
+
+    public int pack() {
+        return pack(this.index, this.vector);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(!(other instanceof Move)) {
+            return false;
+        }
+        Move o = (Move)other;
+        return this.index == o.index && this.vector == o.vector;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.pack();
+    }
+
 	public String toString() {
 		return this.index + " " + this.vector;
 	}
@@ -0,0 +1,47 @@
+package rushhour.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a loop body over [0, n) on the common fork/join pool, splitting the
+ * range in halves until pieces are small enough to run directly. Small loops
+ * run on the calling thread.
+ */
+@SuppressWarnings("serial")
+final class ParallelRange extends RecursiveAction {
+
+	static final int THRESHOLD = 512;
+
+	interface Body {
+		void run(int from, int to);
+	}
+
+	private final Body body;
+	private final int from, to;
+
+	private ParallelRange(Body body, int from, int to) {
+		this.body = body;
+		this.from = from;
+		this.to = to;
+	}
+
+	static void run(int n, Body body) {
+		if(n <= THRESHOLD) {
+			body.run(0, n);
+		} else {
+			ForkJoinPool.commonPool().invoke(new ParallelRange(body, 0, n));
+		}
+	}
+
+	@Override
+	protected void compute() {
+		if(this.to - this.from <= THRESHOLD) {
+			this.body.run(this.from, this.to);
+		} else {
+			int mid = (this.from + this.to) >>> 1;
+			invokeAll(new ParallelRange(this.body, this.from, mid), new ParallelRange(this.body, mid, this.to));
+		}
+	}
+
+}
@@ -0,0 +1,284 @@
+package rushhour.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Optimal solutions kept on disk across runs, in an append-only file with an
+ * index in memory. Boards are keyed by what is on each cell rather than by car
+ * order, like DepthDatabase but for any board size, and moves name their car
+ * by the cell its top-left square is on when it moves, so a solution read back
+ * applies to any file describing the same board.
+ *
+ * File layout: magic and version, then records, each an int length, the
+ * record (key length, key, number of moves, then a short cell and a byte
+ * vector per move) and a CRC32 of the record. Appends take an exclusive lock
+ * on the file, so several processes can share it. Readers take no lock: a
+ * record still being written fails its length or checksum and is left for
+ * the next look, so they only ever see whole records. A lookup that misses
+ * first indexes anything appended since the last one. Whoever holds the lock
+ * knows nothing is being written, so a bad record it meets was torn by a
+ * writer that died, and the file is cut off there before appending.
+ */
+public class SolutionCache {
+
+	// property naming the file getDefault() opens
+	public static final String DEFAULT_PROPERTY = "rushhour.solutioncache";
+
+	private static final int MAGIC = 0x52485343; // "RHSC"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 8;
+	// the most bytes a record could take, to tell a torn length from a real one
+	private static final int MAX_RECORD_BYTES = 1 << 20;
+
+	private static SolutionCache defaultCache;
+	private static boolean defaultLoaded;
+
+	private final FileChannel channel;
+	// where each key's record starts
+	private final Map<ByteBuffer, Long> index = new HashMap<>();
+	// how much of the file has been indexed
+	private long indexed = HEADER_BYTES;
+
+	public SolutionCache(File file) {
+		try {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			FileLock lock = this.channel.lock();
+			try {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				if(this.channel.size() == 0) {
+					header.putInt(MAGIC).putInt(VERSION).flip();
+					this.channel.write(header, 0);
+				} else {
+					this.channel.read(header, 0);
+					if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+						throw new IllegalArgumentException(file + " is not a solution cache");
+					}
+				}
+				this.catchUp(true);
+			} finally {
+				lock.release();
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * The cache named by the rushhour.solutioncache system property, opened
+	 * the first time it's asked for, or null if the property isn't set.
+	 */
+	public static synchronized SolutionCache getDefault() {
+		if(!defaultLoaded) {
+			String path = System.getProperty(DEFAULT_PROPERTY);
+			if(path != null) {
+				defaultCache = new SolutionCache(new File(path));
+			}
+			defaultLoaded = true;
+		}
+		return defaultCache;
+	}
+
+	public synchronized int size() {
+		return this.index.size();
+	}
+
+	/**
+	 * An optimal solution for the board, as moves of its own cars, or null
+	 * if there isn't one in the cache.
+	 */
+	public synchronized List<Move> get(Board board) {
+		ByteBuffer key = key(board);
+		try {
+			Long offset = this.index.get(key);
+			if(offset == null) {
+				this.catchUp(false);
+				offset = this.index.get(key);
+				if(offset == null) {
+					return null;
+				}
+			}
+			return replay(board, this.readRecord(offset));
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Adds an optimal solution for the board, unless it already has one.
+	 */
+	public synchronized void put(Board board, List<Move> path) {
+		ByteBuffer key = key(board);
+		// the moves, with each car named by the cell it's on at the time
+		ByteBuffer record = ByteBuffer.allocate(2 + key.remaining() + 2 + 3 * path.size());
+		record.putShort((short)key.remaining()).put(key.duplicate()).putShort((short)path.size());
+		Board current = board.copy();
+		for(Move move : path) {
+			Car car = current.getCars().get(move.index);
+			record.putShort((short)(car.y * current.getWidth() + car.x)).put((byte)move.vector);
+			current.move(move);
+		}
+		record.flip();
+		CRC32 crc = new CRC32();
+		crc.update(record.duplicate());
+		ByteBuffer framed = ByteBuffer.allocate(4 + record.remaining() + 4);
+		framed.putInt(record.remaining()).put(record).putInt((int)crc.getValue()).flip();
+		try {
+			FileLock lock = this.channel.lock();
+			try {
+				// another process may have added it since we last looked
+				this.catchUp(true);
+				if(this.index.containsKey(key)) {
+					return;
+				}
+				long offset = this.channel.size();
+				while(framed.hasRemaining()) {
+					this.channel.write(framed, offset + framed.position());
+				}
+				this.index.put(key, offset);
+				this.indexed = offset + framed.limit();
+			} finally {
+				lock.release();
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public synchronized void close() {
+		try {
+			this.channel.close();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Indexes every whole record past what's been indexed so far. With the
+	 * lock held, a record that doesn't check out can't still be being
+	 * written, so the file is truncated at it; otherwise it's left for later.
+	 */
+	private void catchUp(boolean locked) throws IOException {
+		long size = this.channel.size();
+		while(this.indexed < size) {
+			ByteBuffer record = this.readRecord(this.indexed);
+			if(record == null) {
+				if(locked) {
+					// torn by a writer that didn't finish
+					this.channel.truncate(this.indexed);
+				}
+				return;
+			}
+			int keyLength = record.getShort();
+			ByteBuffer key = ByteBuffer.allocate(keyLength);
+			record.limit(record.position() + keyLength);
+			key.put(record).flip();
+			this.index.putIfAbsent(key, this.indexed);
+			this.indexed += 4 + record.capacity() + 4;
+		}
+	}
+
+	/**
+	 * The record at offset, checked against its checksum, or null if it
+	 * isn't all there yet.
+	 */
+	private ByteBuffer readRecord(long offset) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		if(this.readFully(length, offset) < 4) {
+			return null;
+		}
+		int n = length.getInt(0);
+		if(n <= 0 || n > MAX_RECORD_BYTES) {
+			return null;
+		}
+		ByteBuffer record = ByteBuffer.allocate(n);
+		ByteBuffer checksum = ByteBuffer.allocate(4);
+		if(this.readFully(record, offset + 4) < n || this.readFully(checksum, offset + 4 + n) < 4) {
+			return null;
+		}
+		record.flip();
+		CRC32 crc = new CRC32();
+		crc.update(record.duplicate());
+		if((int)crc.getValue() != checksum.getInt(0)) {
+			return null;
+		}
+		return record;
+	}
+
+	private int readFully(ByteBuffer buffer, long offset) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(this.channel.read(buffer, offset + buffer.position()) < 0) {
+				break;
+			}
+		}
+		return buffer.position();
+	}
+
+	/**
+	 * Turns a record's moves back into moves of the board's own cars, or
+	 * null if they don't solve it.
+	 */
+	private static List<Move> replay(Board board, ByteBuffer record) {
+		if(record == null) {
+			return null;
+		}
+		record.position(2 + record.getShort(0));
+		int numMoves = record.getShort();
+		List<Move> path = new ArrayList<Move>(numMoves);
+		Board current = board.copy();
+		for(int i = 0; i < numMoves; i++) {
+			int cell = record.getShort();
+			int vector = record.get();
+			int index = carAt(current, cell);
+			if(index == -1 || !current.move(index, vector)) {
+				return null;
+			}
+			path.add(new Move(index, vector));
+		}
+		return current.isSolved() ? path : null;
+	}
+
+	// the car whose top-left square is on the cell, or -1
+	private static int carAt(Board board, int cell) {
+		List<Car> cars = board.getCars();
+		for(int i = 0; i < cars.size(); i++) {
+			if(cars.get(i).y * board.getWidth() + cars.get(i).x == cell) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Width, height, then a byte per cell: 0 if empty, 1 for the rest of a
+	 * car, and for a car's top-left square its length, orientation and
+	 * whether it's the VIP.
+	 */
+	static ByteBuffer key(Board board) {
+		int width = board.getWidth();
+		byte[] key = new byte[2 + width * board.getHeight()];
+		key[0] = (byte)width;
+		key[1] = (byte)board.getHeight();
+		List<Car> cars = board.getCars();
+		for(int i = 0; i < cars.size(); i++) {
+			Car car = cars.get(i);
+			for(int j = 0; j < car.length; j++) {
+				int cell = car.horizontal ? car.y * width + car.x + j : (car.y + j) * width + car.x;
+				key[2 + cell] = 1;
+			}
+			key[2 + car.y * width + car.x] = (byte)((car.length << 2) | (car.horizontal ? 2 : 0) | (i == 0 ? 1 : 0));
+		}
+		return ByteBuffer.wrap(key);
+	}
+
+}
@@ -0,0 +1,31 @@
+package rushhour.core;
+
+import java.util.Random;
+
+/**
+ * Zobrist keys for hashing positions. A position's hash is the xor of one
+ * random key per car, chosen by the car's index and the cell of its top-left
+ * square, so moving a car updates the hash in O(1). The keys come from a fixed
+ * seed so hashes are stable from run to run.
+ */
+public final class Zobrist {
+
+	private static final int MAX_CARS = Bitboard.MAX_SIZE * Bitboard.MAX_SIZE;
+	private static final long[][] KEYS = new long[MAX_CARS][Bitboard.MAX_SIZE * Bitboard.MAX_SIZE];
+
+	static {
+		Random random = new Random(0x5eeeeeL);
+		for(int car = 0; car < MAX_CARS; car++) {
+			for(int cell = 0; cell < KEYS[car].length; cell++) {
+				KEYS[car][cell] = random.nextLong();
+			}
+		}
+	}
+
+	private Zobrist() {}
+
+	public static long key(int car, int x, int y) {
+		return KEYS[car][y*Bitboard.MAX_SIZE + x];
+	}
+
+}
@@ -148,6 +148,10 @@ public class ConstraintSatisfier {
 				return false;
 			}
 		}
+		if(!Bitboard.fits(this.boardSize, this.boardSize)) {
+			System.err.println("--boardSize can be at most " + Bitboard.MAX_SIZE);
+			return false;
+		}
 		if(this.targetNumCars > this.boardSize*this.boardSize/2) {
 			System.err.println("No such boards exist, sorry!");
 			System.exit(0);
@@ -191,7 +195,9 @@ public class ConstraintSatisfier {
 			}
 			List<Path> paths = Util.getFilePaths(prevGraphsDir);
 			for(Path path : paths) {
-				this.prevGraphs.add(BoardIO.read(path.toAbsolutePath().toString()).getEquivalenceClass().hash());
+				DepthGraph prevGraph = DepthGraph.of(BoardIO.read(path.toAbsolutePath().toString()));
+				this.prevGraphs.add(prevGraph.hash());
+				prevGraph.release();
 			}
 			if(!quiet) {
 				System.err.println("done.");
@@ -236,12 +242,10 @@ public class ConstraintSatisfier {
 				if(!quiet) {
 					System.err.print("generating equivalence class...");
 				}
-				// we'll temporarily store the graph as an EquivalenceClass type, then keep only a DepthGraph later
-				EquivalenceClass equivalenceClass = randomBoard.getEquivalenceClass();
-				hash = equivalenceClass.hash();
-				graphDepth = equivalenceClass.maxDepth();
-				randomBoardDepth = equivalenceClass.getDepthOfBoard(randomBoard);
-				graph = (DepthGraph)equivalenceClass;
+				graph = DepthGraph.of(randomBoard);
+				hash = graph.hash();
+				graphDepth = graph.maxDepth();
+				randomBoardDepth = graph.getDepthOfBoard(randomBoard);
 			}
 			/*
 			 * STEP 1.3: figure out if it meets the constraints
@@ -395,6 +399,9 @@ public class ConstraintSatisfier {
 				totalBoardsGenerated++;
 				uniqueGraphs.add(hash); // needs to happen after the containment check above
 			}
+			if(graph != null) {
+				graph.release();
+			}
 		}
 	}
 
@@ -32,6 +32,11 @@ public final class BoardIO {
 		    String parts[] = f.nextLine().split(" ");
 		    width = Integer.parseInt(parts[0]);
 		    height = Integer.parseInt(parts[1]);
+		    if (!Bitboard.fits(width, height)) {
+		    	// boards are packed into 64-bit bitboards, so say so here rather than fail deep inside Board
+		    	System.err.println(filename + ": " + width + "x" + height + " boards aren't supported, at most " + Bitboard.MAX_SIZE + "x" + Bitboard.MAX_SIZE);
+		    	System.exit(1);
+		    }
 
 		    // Next lines are vehicles: x y length horiz
 		    // Horiz is a boolean
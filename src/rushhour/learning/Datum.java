@@ -1,6 +1,8 @@
 package rushhour.learning;
 
 import rushhour.core.Board;
+import rushhour.core.DepthDatabase;
+import rushhour.core.DepthGraph;
 import rushhour.io.BoardIO;
 
 import java.nio.file.Path;
@@ -14,7 +16,18 @@ public class Datum {
 	public Datum(Path path) {
 		this.id = path.toString();
 		this.board = BoardIO.read(path.toAbsolutePath().toString());
-		this.depth = Integer.parseInt(path.getParent().getFileName().toString());
+		// prefer the exact depth from a depth database, if there is one, then
+		// from a class built on disk, if asked for
+		DepthDatabase database = DepthDatabase.getDefault();
+		if(database != null && database.contains(this.board)) {
+			this.depth = database.getDepthOfBoard(this.board);
+		} else if(System.getProperty(DepthGraph.EXTERNAL_PROPERTY) != null) {
+			DepthGraph graph = DepthGraph.of(this.board);
+			this.depth = graph.getDepthOfBoard(this.board);
+			graph.release();
+		} else {
+			this.depth = Integer.parseInt(path.getParent().getFileName().toString());
+		}
 	}
 
 }
@@ -2,68 +2,164 @@ package rushhour.solving;
 
 import rushhour.core.*;
 
-import java.util.HashSet;
-import java.util.PriorityQueue;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 
-public class AStarSearchSolver extends BoardGraph implements Solver {
+public class AStarSearchSolver implements Solver {
 
-	private NeighborComparator comparator;
+	// how finely f values are told apart by the open list
+	public static final double DEFAULT_SCALE = 1000.0;
 
-	protected class NeighborComparator implements Comparator<SearchNode> {
+	private Heuristic heuristic;
+	private HeuristicCache cache;
+	private CarLayout layout;
+	private double scale = DEFAULT_SCALE;
 
-		private Heuristic heuristic;
+	public AStarSearchSolver(Heuristic heuristic) {
+		this(heuristic, 0);
+	}
 
-		protected NeighborComparator(Heuristic heuristic) {
-			this.heuristic = heuristic;
+	/**
+	 * @param cacheSize how many heuristic values to remember by state, or 0
+	 *        to compute the heuristic every time a state is generated
+	 */
+	public AStarSearchSolver(Heuristic heuristic, int cacheSize) {
+		this.heuristic = heuristic;
+		if(cacheSize > 0) {
+			this.cache = new HeuristicCache(cacheSize);
 		}
+	}
 
-		private double value(SearchNode node) {
-			return node.depth + this.heuristic.value(node.board);
-		}
+	public void setScale(double scale) {
+		this.scale = scale;
+	}
 
-		public int compare(SearchNode node1, SearchNode node2) {
-			double diff = this.value(node1) - this.value(node2);
-			if(diff < 0) {
-				return -1;
-			} else if(diff > 0) {
-				return 1;
-			} else {
-				return 0;
+	// h for a new node, from the cache if it has it. The board is decoded
+	// just for this, rather than kept on the node.
+	private void evaluate(SearchNode node, SearchStats stats) {
+		double h = this.cache == null ? Double.NaN : this.cache.get(node.state);
+		if(Double.isNaN(h)) {
+			long before = System.nanoTime();
+			h = this.heuristic.value(this.layout.toBoard(node.state));
+			stats.heuristicNanos += System.nanoTime() - before;
+			stats.heuristicEvaluations++;
+			if(this.cache != null) {
+				this.cache.put(node.state, h);
 			}
 		}
-
+		node.setHeuristic(h);
 	}
 
-	public AStarSearchSolver(Heuristic heuristic) {
-		super();
-		this.comparator = new NeighborComparator(heuristic);
-	}
-
-	public SolveResult getSolution(Board board) {
-		this.clear();
-		this.addVertex(board);
-		HashSet<Long> visited = new HashSet<>();
-		PriorityQueue<SearchNode> queue = new PriorityQueue<SearchNode>(100, this.comparator);
-		queue.offer(new SearchNode(this.getVertex(board)));
-		while(!queue.isEmpty()) {
-			SearchNode current = queue.poll();
-			if(visited.contains(current.board.hash())) {
-				continue;
+	public SolveResult getSolution(Board board, SolveOptions options) {
+		SearchStats stats = new SearchStats(options);
+		if(this.cache != null && !board.getLayout().equals(this.layout)) {
+			// cached states belong to the last layout
+			this.cache.clear();
+		}
+		this.layout = board.getLayout();
+		int[] moves = new int[this.layout.maxMoves()];
+		// one node per distinct state, holding the best depth found for it.
+		// a state and its mirror image share a node, keyed by the smaller
+		LongObjectHashMap<SearchNode> nodes = new LongObjectHashMap<SearchNode>();
+		BucketOpenList open = new BucketOpenList(this.scale);
+		SearchNode root = new SearchNode(this.layout.encode(board));
+		int[] mirror = this.layout.mirrorPermutation(root.state);
+		this.evaluate(root, stats);
+		nodes.put(this.layout.canonical(root.state, mirror), root);
+		open.push(root);
+		int expanded = 0;
+		SearchNode current;
+		while(true) {
+			long before = stats.clock();
+			current = open.pop();
+			stats.queueNanos += stats.clock() - before;
+			if(current == null) {
+				break;
 			}
-			if(current.vertex.board.isSolved()) {
+			if(this.layout.isSolved(current.state)) {
 				// construct list from node tree
-				return new SolveResult(current.getPath(), current.vertex.board, visited.size());
+				this.finish(stats, nodes, expanded);
+				return this.solution(root, current, mirror, expanded, stats);
 			}
-			visited.add(current.board.hash());
-			current.vertex.expand();
-			for(Edge edge : current.vertex.neighbors) {
-				if(visited.contains(edge.vertex.board.hash())) {
+			if(options.exceeded(expanded, open.size())) {
+				this.finish(stats, nodes, expanded);
+				return new SolveResult(SolveResult.Status.BUDGET_EXCEEDED, expanded, stats);
+			}
+			expanded++;
+			before = stats.clock();
+			int numMoves = this.layout.generateMoves(current.state, moves);
+			stats.moveGenerationNanos += stats.clock() - before;
+			stats.generated += numMoves;
+			for(int i = 0; i < numMoves; i++) {
+				before = stats.clock();
+				long neighbor = this.layout.apply(current.state, moves[i]);
+				long applied = stats.clock();
+				stats.moveGenerationNanos += applied - before;
+				long key = this.layout.canonical(neighbor, mirror);
+				SearchNode node = nodes.get(key);
+				stats.hashingNanos += stats.clock() - applied;
+				if(node == null) {
+					node = new SearchNode(neighbor, current, moves[i]);
+					this.evaluate(node, stats);
+					before = stats.clock();
+					nodes.put(key, node);
+					stats.hashingNanos += stats.clock() - before;
+					if(Double.isInfinite(node.h)) {
+						// can't reach a solution from here
+						continue;
+					}
+				} else if(current.depth + 1 < node.depth && !Double.isInfinite(node.h)) {
+					// a shorter way in: reopen it, even if it was already expanded.
+					// the way in may reach its mirror image instead
+					node.setParent(current, moves[i]);
+					node.mirrored = neighbor != node.state;
+				} else {
+					stats.duplicates++;
 					continue;
 				}
-				queue.offer(new SearchNode(edge.vertex, current, edge.move));
+				before = stats.clock();
+				open.push(node);
+				stats.queueNanos += stats.clock() - before;
 			}
+			stats.openSize(open.size());
+		}
+		this.finish(stats, nodes, expanded);
+		return new SolveResult(SolveResult.Status.UNSOLVABLE, expanded, stats);
+	}
+
+	/**
+	 * The path from the root to a solved node. Each node's children were
+	 * generated from its own state, so below a node reached as its mirror
+	 * image, moves are mirrored to fit the board actually on the path.
+	 */
+	private SolveResult solution(SearchNode root, SearchNode solved, int[] mirror, int expanded, SearchStats stats) {
+		List<SearchNode> chain = new ArrayList<SearchNode>();
+		for(SearchNode node = solved; node.parent != null; node = node.parent) {
+			chain.add(node);
+		}
+		Collections.reverse(chain);
+		List<Move> path = new LinkedList<Move>();
+		long state = root.state;
+		boolean flipped = false;
+		for(SearchNode node : chain) {
+			int move = flipped ? this.layout.mirrorMove(node.move, mirror) : node.move;
+			path.add(Move.unpack(move));
+			state = this.layout.apply(state, move);
+			flipped ^= node.mirrored;
 		}
-		return null;
+		return new SolveResult(path, this.layout.toBoard(state), expanded, stats);
+	}
+
+	private void finish(SearchStats stats, LongObjectHashMap<SearchNode> nodes, int expanded) {
+		stats.expanded = expanded;
+		stats.closedSize(nodes.size());
+		stats.bytes(nodeTableBytes(nodes) + 4L * stats.peakOpen, nodes.size());
+	}
+
+	// the table's keys and references, plus a node per entry
+	static long nodeTableBytes(LongObjectHashMap<SearchNode> nodes) {
+		return 12L * nodes.capacity() + (long)SearchStats.NODE_BYTES * nodes.size();
 	}
 }
@@ -0,0 +1,203 @@
+package rushhour.solving;
+
+import rushhour.core.*;
+
+/**
+ * Anytime weighted A*. Searches first with f = g + w * h for a large weight
+ * w, which finds a solution quickly, then searches again with smaller and
+ * smaller weights down to plain A*, each time pruning anything that can't
+ * beat the best solution so far (g + h at least its length). With an
+ * admissible heuristic, a solution from a pass with weight w is at most w
+ * times optimal, and a pass that finishes without beating the incumbent
+ * proves it optimal. If the heuristic isn't known to be admissible, there
+ * is no bound to give, and results carry NaN instead. Every improvement is reported to the listener, with its
+ * bound, and if the deadline passes the best solution so far is returned.
+ * The same goes for the budget in SolveOptions, which covers all the passes
+ * together: the result is only BUDGET_EXCEEDED if no pass got as far as a
+ * solution.
+ */
+public class AnytimeAStarSolver implements Solver {
+
+	public static final double DEFAULT_INITIAL_WEIGHT = 5.0;
+	// how many expansions between looks at the clock
+	private static final int CLOCK_INTERVAL = 256;
+
+	public interface Listener {
+		public void improved(SolveResult result);
+	}
+
+	private Heuristic heuristic;
+	private double initialWeight;
+	private long timeLimitMillis = -1;
+	private Listener listener;
+	private HeuristicCache cache = new HeuristicCache(1 << 20);
+	private CarLayout layout;
+
+	private long root;
+	private long deadline;
+	private SolveOptions options;
+	private boolean stopped;
+	private int expanded;
+	private SearchStats stats;
+
+	public AnytimeAStarSolver(Heuristic heuristic) {
+		this(heuristic, DEFAULT_INITIAL_WEIGHT);
+	}
+
+	public AnytimeAStarSolver(Heuristic heuristic, double initialWeight) {
+		this.heuristic = heuristic;
+		this.initialWeight = initialWeight;
+	}
+
+	/**
+	 * Gives each getSolution() call this long before it settles for the best
+	 * solution so far, or no limit if negative.
+	 */
+	public void setTimeLimit(long millis) {
+		this.timeLimitMillis = millis;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	public SolveResult getSolution(Board board, SolveOptions options) {
+		if(!board.getLayout().equals(this.layout)) {
+			// cached states belong to the last layout
+			this.cache.clear();
+		}
+		this.layout = board.getLayout();
+		this.root = this.layout.encode(board);
+		this.deadline = this.timeLimitMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + this.timeLimitMillis;
+		this.options = options;
+		this.stopped = false;
+		this.expanded = 0;
+		this.stats = new SearchStats(options);
+		SolveResult best = null;
+		boolean admissible = this.heuristic.isAdmissible();
+		double weight = Math.max(this.initialWeight, 1.0);
+		while(!this.stopped) {
+			int incumbent = best == null ? Integer.MAX_VALUE : best.path.size();
+			SearchNode solution = this.search(weight, incumbent);
+			if(solution != null) {
+				this.stats.expanded = this.expanded;
+				best = new SolveResult(solution.getPath(), solution.getBoard(this.layout), this.expanded, this.stats);
+				best.bound = admissible ? weight : Double.NaN;
+				if(this.listener != null) {
+					this.listener.improved(best);
+				}
+			} else if(!this.stopped) {
+				if(best != null && admissible) {
+					// nothing shorter exists at all, so the incumbent is optimal
+					best.bound = 1.0;
+					if(this.listener != null) {
+						this.listener.improved(best);
+					}
+				}
+				break;
+			}
+			if(weight == 1.0 && !this.stopped) {
+				break;
+			}
+			// halve the distance to plain A*
+			weight = 1.0 + (weight - 1.0) / 2;
+			if(weight < 1.05) {
+				weight = 1.0;
+			}
+		}
+		this.stats.expanded = this.expanded;
+		if(best == null) {
+			return new SolveResult(this.stopped ? SolveResult.Status.BUDGET_EXCEEDED : SolveResult.Status.UNSOLVABLE, this.expanded, this.stats);
+		}
+		// the stats are shared by every improvement, so carry on to the end
+		best.visitedStates = this.expanded;
+		this.stats.finish();
+		return best;
+	}
+
+	/**
+	 * One weighted A* pass, as in AStarSearchSolver, skipping every node that
+	 * can't lead to a solution shorter than incumbent. Returns null if there
+	 * is no such solution or the deadline or budget ran out.
+	 */
+	private SearchNode search(double weight, int incumbent) {
+		int[] moves = new int[this.layout.maxMoves()];
+		LongObjectHashMap<SearchNode> nodes = new LongObjectHashMap<SearchNode>();
+		BucketOpenList open = new BucketOpenList(AStarSearchSolver.DEFAULT_SCALE);
+		SearchNode root = new SearchNode(this.root);
+		this.evaluate(root, weight);
+		nodes.put(root.state, root);
+		open.push(root);
+		SearchStats stats = this.stats;
+		try {
+			while(true) {
+				long before = stats.clock();
+				SearchNode current = open.pop();
+				stats.queueNanos += stats.clock() - before;
+				if(current == null) {
+					return null;
+				}
+				if(current.depth + current.h >= incumbent) {
+					continue;
+				}
+				if(this.layout.isSolved(current.state)) {
+					return current;
+				}
+				if(this.options.exceeded(this.expanded, open.size())
+						|| (++this.expanded % CLOCK_INTERVAL == 0 && System.currentTimeMillis() > this.deadline)) {
+					this.stopped = true;
+					return null;
+				}
+				before = stats.clock();
+				int numMoves = this.layout.generateMoves(current.state, moves);
+				stats.moveGenerationNanos += stats.clock() - before;
+				stats.generated += numMoves;
+				for(int i = 0; i < numMoves; i++) {
+					before = stats.clock();
+					long neighbor = this.layout.apply(current.state, moves[i]);
+					long applied = stats.clock();
+					stats.moveGenerationNanos += applied - before;
+					SearchNode node = nodes.get(neighbor);
+					stats.hashingNanos += stats.clock() - applied;
+					if(node == null) {
+						node = new SearchNode(neighbor, current, moves[i]);
+						this.evaluate(node, weight);
+						before = stats.clock();
+						nodes.put(neighbor, node);
+						stats.hashingNanos += stats.clock() - before;
+					} else if(current.depth + 1 < node.depth) {
+						node.setParent(current, moves[i]);
+					} else {
+						stats.duplicates++;
+						continue;
+					}
+					if(node.depth + node.h < incumbent) {
+						before = stats.clock();
+						open.push(node);
+						stats.queueNanos += stats.clock() - before;
+					}
+				}
+				stats.openSize(open.size());
+			}
+		} finally {
+			// memory is for the biggest pass, since each pass starts afresh
+			if(nodes.size() > stats.peakClosed) {
+				stats.closedSize(nodes.size());
+				stats.bytes(AStarSearchSolver.nodeTableBytes(nodes) + 4L * stats.peakOpen, nodes.size());
+			}
+		}
+	}
+
+	private void evaluate(SearchNode node, double weight) {
+		double h = this.cache.get(node.state);
+		if(Double.isNaN(h)) {
+			long before = System.nanoTime();
+			h = this.heuristic.value(this.layout.toBoard(node.state));
+			this.stats.heuristicNanos += System.nanoTime() - before;
+			this.stats.heuristicEvaluations++;
+			this.cache.put(node.state, h);
+		}
+		node.setHeuristic(h, weight);
+	}
+
+}
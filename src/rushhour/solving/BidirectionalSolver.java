@@ -0,0 +1,231 @@
+package rushhour.solving;
+
+import rushhour.core.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Bidirectional BFS: one search forward from the board and one backward from
+ * the solved states, expanding whichever frontier is smaller a whole level at
+ * a time, until they meet. Every move can be undone, so searching backward is
+ * just searching forward from the other end.
+ *
+ * Cars in the same lane can never pass each other, so only solved states that
+ * keep each lane's cars in the board's order can be in its class. The
+ * backward search is seeded with every such placement, which is usually close
+ * to the class's own set of solutions.
+ */
+public class BidirectionalSolver implements Solver {
+
+	private CarLayout layout;
+	private int[] moves;
+	private int expanded;
+	private SolveOptions options;
+	private boolean stopped;
+	private SearchStats stats;
+
+	public SolveResult getSolution(Board board, SolveOptions options) {
+		this.layout = board.getLayout();
+		this.moves = new int[this.layout.maxMoves()];
+		this.expanded = 0;
+		this.options = options;
+		this.stopped = false;
+		this.stats = new SearchStats(options);
+		long start = this.layout.encode(board);
+		// forward nodes point back toward the board, backward nodes forward
+		// toward a solution, each with the move that gets there
+		LongObjectHashMap<SearchNode> forward = new LongObjectHashMap<SearchNode>();
+		LongObjectHashMap<SearchNode> backward = new LongObjectHashMap<SearchNode>();
+		LongList forwardFrontier = new LongList();
+		LongList backwardFrontier = new LongList();
+		forward.put(start, new SearchNode(start));
+		forwardFrontier.add(start);
+		LongList goals = this.goals(start);
+		for(int i = 0; i < goals.size(); i++) {
+			backward.put(goals.get(i), new SearchNode(goals.get(i)));
+			backwardFrontier.add(goals.get(i));
+		}
+		if(backward.containsKey(start)) {
+			this.finish(forward, backward);
+			return new SolveResult(new LinkedList<Move>(), board.copy(), 1, this.stats);
+		}
+		while(!forwardFrontier.isEmpty() && !backwardFrontier.isEmpty()) {
+			boolean fromStart = forwardFrontier.size() <= backwardFrontier.size();
+			SearchNode[] meeting = new SearchNode[2];
+			LongList next;
+			if(fromStart) {
+				next = this.expand(forwardFrontier, forward, backward, meeting, false, backwardFrontier.size());
+				forwardFrontier = next;
+			} else {
+				next = this.expand(backwardFrontier, backward, forward, meeting, true, forwardFrontier.size());
+				backwardFrontier = next;
+			}
+			this.stats.openSize(forwardFrontier.size() + backwardFrontier.size());
+			if(this.stopped) {
+				this.finish(forward, backward);
+				return new SolveResult(SolveResult.Status.BUDGET_EXCEEDED, this.expanded, this.stats);
+			}
+			if(meeting[0] != null) {
+				SearchNode from = fromStart ? meeting[0] : meeting[1];
+				SearchNode to = fromStart ? meeting[1] : meeting[0];
+				this.finish(forward, backward);
+				return this.join(board, from, to, this.expanded);
+			}
+		}
+		this.finish(forward, backward);
+		return new SolveResult(SolveResult.Status.UNSOLVABLE, this.expanded, this.stats);
+	}
+
+	// both node tables, plus a long per state in the biggest pair of frontiers
+	private void finish(LongObjectHashMap<SearchNode> forward, LongObjectHashMap<SearchNode> backward) {
+		int states = forward.size() + backward.size();
+		this.stats.expanded = this.expanded;
+		this.stats.closedSize(states);
+		long bytes = AStarSearchSolver.nodeTableBytes(forward) + AStarSearchSolver.nodeTableBytes(backward) + 8L * this.stats.peakOpen;
+		this.stats.bytes(bytes, states);
+	}
+
+	/**
+	 * Expands one level of a search. Every time a new state is already known
+	 * to the other search, the pair with the shortest total is kept in
+	 * meeting: the node on this side, then the node on the other. The whole
+	 * level is finished first, so the best meeting point isn't missed, unless
+	 * the budget runs out. Both frontiers count as open, theirs being
+	 * otherFrontier long.
+	 */
+	private LongList expand(LongList frontier, LongObjectHashMap<SearchNode> mine, LongObjectHashMap<SearchNode> theirs, SearchNode[] meeting, boolean reversed, int otherFrontier) {
+		LongList next = new LongList();
+		int best = Integer.MAX_VALUE;
+		for(int i = 0; i < frontier.size(); i++) {
+			if(this.options.exceeded(this.expanded, frontier.size() - i + next.size() + otherFrontier)) {
+				this.stopped = true;
+				return next;
+			}
+			long state = frontier.get(i);
+			SearchNode current = mine.get(state);
+			this.expanded++;
+			long before = this.stats.clock();
+			int numMoves = this.layout.generateMoves(state, this.moves);
+			this.stats.moveGenerationNanos += this.stats.clock() - before;
+			this.stats.generated += numMoves;
+			for(int m = 0; m < numMoves; m++) {
+				before = this.stats.clock();
+				long neighbor = this.layout.apply(state, this.moves[m]);
+				long applied = this.stats.clock();
+				this.stats.moveGenerationNanos += applied - before;
+				boolean known = mine.containsKey(neighbor);
+				this.stats.hashingNanos += this.stats.clock() - applied;
+				if(known) {
+					this.stats.duplicates++;
+					continue;
+				}
+				// backward nodes store the move from themselves toward the goal
+				int move = reversed ? Move.pack(Move.index(this.moves[m]), -Move.vector(this.moves[m])) : this.moves[m];
+				SearchNode node = new SearchNode(neighbor, current, move);
+				before = this.stats.clock();
+				mine.put(neighbor, node);
+				long put = this.stats.clock();
+				this.stats.hashingNanos += put - before;
+				next.add(neighbor);
+				long queued = this.stats.clock();
+				this.stats.queueNanos += queued - put;
+				SearchNode other = theirs.get(neighbor);
+				this.stats.hashingNanos += this.stats.clock() - queued;
+				if(other != null && node.depth + other.depth < best) {
+					best = node.depth + other.depth;
+					meeting[0] = node;
+					meeting[1] = other;
+				}
+			}
+		}
+		return next;
+	}
+
+	// from: forward node, to: backward node, both for the same state
+	private SolveResult join(Board board, SearchNode from, SearchNode to, int visitedStates) {
+		List<Move> path = from.getPath();
+		for(SearchNode node = to; node.parent != null; node = node.parent) {
+			path.add(Move.unpack(node.move));
+		}
+		Board solvedBoard = board.copy();
+		for(Move move : path) {
+			solvedBoard.move(move);
+		}
+		return new SolveResult(path, solvedBoard, visitedStates, this.stats);
+	}
+
+	/**
+	 * Every solved state that keeps the cars of each lane in the same order
+	 * as they are in start.
+	 */
+	private LongList goals(long start) {
+		int numCars = this.layout.numCars();
+		// the car just before each car in its lane, or -1
+		int[] previous = new int[numCars];
+		Arrays.fill(previous, -1);
+		for(int car = 0; car < numCars; car++) {
+			for(int other = 0; other < numCars; other++) {
+				if(this.sameLane(car, other) && this.layout.position(start, other) < this.layout.position(start, car)
+						&& (previous[car] == -1 || this.layout.position(start, other) > this.layout.position(start, previous[car]))) {
+					previous[car] = other;
+				}
+			}
+		}
+		// place cars in an order where each comes after the one before it in its lane
+		List<Integer> order = new ArrayList<>();
+		for(int car = 0; car < numCars; car++) {
+			order.add(car);
+		}
+		order.sort((a, b) -> this.layout.position(start, a) - this.layout.position(start, b));
+		LongList goals = new LongList();
+		int[] positions = new int[numCars];
+		positions[0] = this.layout.lineLength(0) - this.layout.length(0);
+		this.place(order, 0, previous, positions, 0L, goals);
+		return goals;
+	}
+
+	private void place(List<Integer> order, int i, int[] previous, int[] positions, long occupied, LongList goals) {
+		if(i == order.size()) {
+			goals.add(this.layout.encode(positions));
+			return;
+		}
+		int car = order.get(i);
+		if(car == 0) {
+			long bits = this.carBits(positions[0], 0);
+			if((occupied & bits) == 0) {
+				this.place(order, i + 1, previous, positions, occupied | bits, goals);
+			}
+			return;
+		}
+		int first = 0;
+		if(previous[car] != -1) {
+			first = positions[previous[car]] + this.layout.length(previous[car]);
+		}
+		for(int pos = first; pos < this.layout.numPositions(car); pos++) {
+			positions[car] = pos;
+			long bits = this.carBits(pos, car);
+			if((occupied & bits) == 0) {
+				this.place(order, i + 1, previous, positions, occupied | bits, goals);
+			}
+		}
+	}
+
+	// the cells the car covers at the given position, row-major
+	private long carBits(int pos, int car) {
+		long bits = 0L;
+		for(int i = 0; i < this.layout.length(car); i++) {
+			int x = this.layout.isHorizontal(car) ? pos + i : this.layout.lane(car);
+			int y = this.layout.isHorizontal(car) ? this.layout.lane(car) : pos + i;
+			bits |= 1L << (y * this.layout.getWidth() + x);
+		}
+		return bits;
+	}
+
+	private boolean sameLane(int a, int b) {
+		return a != b && this.layout.isHorizontal(a) == this.layout.isHorizontal(b) && this.layout.lane(a) == this.layout.lane(b);
+	}
+
+}
@@ -12,6 +12,11 @@ public class BlockingFeature implements Feature {
 		return "blocking";
 	}
 
+	// every blocking car has to move at least once, and so does the VIP
+	public boolean isAdmissible() {
+		return true;
+	}
+
 	public double value(Board board) {
 		if (board.isSolved()) { return 0; }
 		Car vip = board.getCars().get(0);
@@ -2,35 +2,79 @@ package rushhour.solving;
 
 import rushhour.core.*;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.LinkedList;
 
-public class BreadthFirstSearchSolver extends BoardGraph implements Solver {
-	public SolveResult getSolution(Board board) {
-		this.clear();
-		this.addVertex(board);
-		HashSet<Long> visited = new HashSet<>();
+public class BreadthFirstSearchSolver implements Solver {
+
+	// a LinkedList entry: header, three references, padding
+	private static final int ENTRY_BYTES = 24;
+
+	public SolveResult getSolution(Board board, SolveOptions options) {
+		SearchStats stats = new SearchStats(options);
+		CarLayout layout = board.getLayout();
+		int[] moves = new int[layout.maxMoves()];
+		long start = layout.encode(board);
+		// a state and its mirror image are the same distance from a solution,
+		// so only one of each pair needs visiting
+		int[] mirror = layout.mirrorPermutation(start);
+		LongHashSet visited = new LongHashSet();
 		LinkedList<SearchNode> queue = new LinkedList<>();
-		queue.offer(new SearchNode(this.getVertex(board)));
+		queue.offer(new SearchNode(start));
 		while(!queue.isEmpty()) {
+			long before = stats.clock();
 			SearchNode current = queue.poll();
-			if(visited.contains(current.board.hash())) {
+			long polled = stats.clock();
+			stats.queueNanos += polled - before;
+			long key = layout.canonical(current.state, mirror);
+			boolean seen = visited.contains(key);
+			stats.hashingNanos += stats.clock() - polled;
+			if(seen) {
+				stats.duplicates++;
 				continue;
 			}
-			if(current.vertex.board.isSolved()) {
+			if(layout.isSolved(current.state)) {
 				// construct list from node tree
-				return new SolveResult(current.getPath(), current.vertex.board, visited.size());
+				this.finish(stats, visited);
+				return new SolveResult(current.getPath(), layout.toBoard(current.state), visited.size(), stats);
+			}
+			if(options.exceeded(visited.size(), queue.size())) {
+				this.finish(stats, visited);
+				return new SolveResult(SolveResult.Status.BUDGET_EXCEEDED, visited.size(), stats);
 			}
-			visited.add(current.board.hash());
-			current.vertex.expand();
-			for(Edge edge : current.vertex.neighbors) {
-				if(visited.contains(edge.vertex.board.hash())) {
+			before = stats.clock();
+			visited.add(key);
+			stats.hashingNanos += stats.clock() - before;
+			stats.expanded++;
+			before = stats.clock();
+			int numMoves = layout.generateMoves(current.state, moves);
+			stats.moveGenerationNanos += stats.clock() - before;
+			stats.generated += numMoves;
+			for(int i = 0; i < numMoves; i++) {
+				before = stats.clock();
+				long neighbor = layout.apply(current.state, moves[i]);
+				long applied = stats.clock();
+				stats.moveGenerationNanos += applied - before;
+				seen = visited.contains(layout.canonical(neighbor, mirror));
+				long looked = stats.clock();
+				stats.hashingNanos += looked - applied;
+				if(seen) {
+					stats.duplicates++;
 					continue;
 				}
-				queue.offer(new SearchNode(edge.vertex, current, edge.move));
+				queue.offer(new SearchNode(neighbor, current, moves[i]));
+				stats.queueNanos += stats.clock() - looked;
 			}
+			stats.openSize(queue.size());
 		}
-		return null;
+		this.finish(stats, visited);
+		return new SolveResult(SolveResult.Status.UNSOLVABLE, visited.size(), stats);
+	}
+
+	// every visited state may still be a parent of something queued, so all keep a node
+	private void finish(SearchStats stats, LongHashSet visited) {
+		stats.closedSize(visited.size());
+		long bytes = 8L * visited.capacity() + (long)SearchStats.NODE_BYTES * (visited.size() + stats.peakOpen) + (long)ENTRY_BYTES * stats.peakOpen;
+		stats.bytes(bytes, visited.size() + stats.peakOpen);
 	}
 }
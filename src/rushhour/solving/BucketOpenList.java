@@ -0,0 +1,108 @@
+package rushhour.solving;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Open list for A*, bucketed by f scaled to an int and, within each f, by
+ * depth. pop() takes from the lowest f and, among those, the deepest node
+ * (equivalently the lowest h), last in first out. Both push and pop are
+ * amortized O(1): the f cursor only moves back when a node is pushed below
+ * it, and each bucket keeps a cursor on its deepest non-empty depth.
+ *
+ * A node pushed again after its depth improved leaves its old entry behind;
+ * pop() recognizes those by the depth no longer matching and skips them.
+ *
+ * Weighted heuristics with negative weights can give negative f values, so
+ * bucket i holds scaled f value origin + i, and origin moves down when
+ * something is pushed below it.
+ */
+class BucketOpenList {
+
+	private final double scale;
+	private final List<Bucket> buckets = new ArrayList<>();
+	// the scaled f of buckets.get(0)
+	private int origin;
+	// the scaled f of the lowest bucket that may be non-empty
+	private int lowest;
+	private int size;
+
+	private static class Bucket {
+		// byDepth.get(g) holds the nodes pushed with depth g
+		List<List<SearchNode>> byDepth = new ArrayList<>();
+		int deepest = -1;
+		int size;
+	}
+
+	/**
+	 * @param scale f values are multiplied by this and rounded to pick a
+	 *        bucket, so f values closer together than 1/scale tie
+	 */
+	BucketOpenList(double scale) {
+		this.scale = scale;
+	}
+
+	// includes stale entries
+	int size() {
+		return this.size;
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	void push(SearchNode node) {
+		int f = (int)Math.round(node.f * this.scale);
+		if(this.buckets.isEmpty()) {
+			this.origin = f;
+		} else if(f < this.origin) {
+			// grow downward by at least as much as we have, so repeated
+			// pushes below the origin stay amortized O(1)
+			int grow = Math.max(this.origin - f, this.buckets.size());
+			List<Bucket> below = new ArrayList<>(grow);
+			for(int i = 0; i < grow; i++) {
+				below.add(new Bucket());
+			}
+			this.buckets.addAll(0, below);
+			this.origin -= grow;
+		}
+		while(this.buckets.size() <= f - this.origin) {
+			this.buckets.add(new Bucket());
+		}
+		Bucket bucket = this.buckets.get(f - this.origin);
+		while(bucket.byDepth.size() <= node.depth) {
+			bucket.byDepth.add(new ArrayList<SearchNode>());
+		}
+		bucket.byDepth.get(node.depth).add(node);
+		bucket.deepest = Math.max(bucket.deepest, node.depth);
+		bucket.size++;
+		if(this.size == 0 || f < this.lowest) {
+			this.lowest = f;
+		}
+		this.size++;
+	}
+
+	/**
+	 * The best node, or null once only stale entries were left.
+	 */
+	SearchNode pop() {
+		while(this.size > 0) {
+			while(this.buckets.get(this.lowest - this.origin).size == 0) {
+				this.lowest++;
+			}
+			Bucket bucket = this.buckets.get(this.lowest - this.origin);
+			while(bucket.byDepth.get(bucket.deepest).isEmpty()) {
+				bucket.deepest--;
+			}
+			List<SearchNode> nodes = bucket.byDepth.get(bucket.deepest);
+			SearchNode node = nodes.remove(nodes.size() - 1);
+			bucket.size--;
+			this.size--;
+			if(node.depth == bucket.deepest) {
+				return node;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,48 @@
+package rushhour.solving;
+
+import rushhour.core.*;
+
+import java.util.List;
+
+/**
+ * Looks boards up in a SolutionCache before handing them to another solver,
+ * and adds that solver's solutions to the cache if the solver is optimal by
+ * construction. A bound reported by the solver itself isn't trusted, since it
+ * rests on assumptions about the heuristic that may not hold.
+ */
+public class CachingSolver implements Solver {
+
+	private final Solver solver;
+	private final SolutionCache cache;
+	private final boolean optimal;
+
+	public CachingSolver(Solver solver, SolutionCache cache, boolean optimal) {
+		this.solver = solver;
+		this.cache = cache;
+		this.optimal = optimal;
+	}
+
+	public Solver getSolver() {
+		return this.solver;
+	}
+
+	public SolveResult getSolution(Board board, SolveOptions options) {
+		SearchStats stats = new SearchStats(options);
+		List<Move> path = this.cache.get(board);
+		if(path != null) {
+			Board solvedBoard = board.copy();
+			for(Move m : path) {
+				solvedBoard.move(m);
+			}
+			SolveResult result = new SolveResult(path, solvedBoard, 0, stats);
+			result.bound = 1.0;
+			return result;
+		}
+		SolveResult result = this.solver.getSolution(board, options);
+		if(result.status == SolveResult.Status.SOLVED && this.optimal) {
+			this.cache.put(board, result.path);
+		}
+		return result;
+	}
+
+}
@@ -5,17 +5,43 @@ import rushhour.core.*;
 import java.util.List;
 
 public class EquivalenceClassSolver implements Solver {
-	public SolveResult getSolution(Board board) {
-		EquivalenceClass graph = new EquivalenceClass(board);
+	/**
+	 * The class is built all at once, so the budget is only checked before
+	 * it's built: a deadline already passed, or cancellation.
+	 */
+	public SolveResult getSolution(Board board, SolveOptions options) {
+		SearchStats stats = new SearchStats(options);
+		// a precomputed depth database answers without any search
+		DepthDatabase database = DepthDatabase.getDefault();
+		if(database != null && database.contains(board)) {
+			List<Move> path = database.movesToNearestSolution(board);
+			Board solvedBoard = board.copy();
+			for(Move m : path) {
+				solvedBoard.move(m);
+			}
+			return new SolveResult(path, solvedBoard, path.size() + 1, stats);
+		}
+		if(options.exceeded(0, 0)) {
+			return new SolveResult(SolveResult.Status.BUDGET_EXCEEDED, 0, stats);
+		}
+		EquivalenceClass graph = EquivalenceClassCache.getShared().get(board);
+		// every state is expanded once, and every edge but the ones into a
+		// new state found one already seen
+		stats.expanded = graph.size();
+		stats.generated = graph.numEdges();
+		stats.duplicates = graph.numEdges() - (graph.size() - 1);
+		stats.closedSize(graph.size());
+		// the state, its edge offset and depth, and its share of the edges' targets and moves
+		stats.bytes((8L + 4 + 2) * graph.size() + 6L * graph.numEdges(), graph.size());
 		if(graph.maxDepth() > -1) {
 			List<Move> path = graph.movesToNearestSolution(board);
 			Board solvedBoard = board.copy();
 			for(Move m : path) {
 				solvedBoard.move(m);
 			}
-			return new SolveResult(path, solvedBoard, graph.size());
+			return new SolveResult(path, solvedBoard, graph.size(), stats);
 		} else {
-			return null;
+			return new SolveResult(SolveResult.Status.UNSOLVABLE, graph.size(), stats);
 		}
 	}
 }
@@ -8,6 +8,14 @@ public interface Feature {
 
 	public String toString();
 
+	/**
+	 * Whether the value never overestimates the number of moves left, so
+	 * searches can vouch for the optimality of what they find with it.
+	 */
+	public default boolean isAdmissible() {
+		return false;
+	}
+
 	public static Feature fromString(String name) {
 		if(name.equals("solved")) {
 			return new SolvedFeature();
@@ -15,6 +23,8 @@ public interface Feature {
 			return new BlockingFeature();
 		} else if(name.equals("forward")) {
 			return new ForwardBlockingFeature();
+		} else if(name.equals("pattern")) {
+			return new PatternDatabaseFeature();
 		} else {
 			System.err.println("ERROR: unrecognized feature name!");
 			System.exit(1);
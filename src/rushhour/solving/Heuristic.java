@@ -22,6 +22,19 @@ public class Heuristic {
 		this.normalizeWeights();
 	}
 
+	/**
+	 * A heuristic with the same weights and fresh instances of the same
+	 * features, for a thread of its own: features may keep scratch state
+	 * between calls, so instances can't be shared across threads.
+	 */
+	public Heuristic copy() {
+		Feature[] features = new Feature[this.features.length];
+		for(int i=0; i<features.length; i++) {
+			features[i] = Feature.fromString(this.features[i].toString());
+		}
+		return new Heuristic(features, this.weights.clone());
+	}
+
 	public double value(Board board) {
 		double result = 0.0;
 		for(int i=0; i<this.features.length; i++) {
@@ -30,6 +43,20 @@ public class Heuristic {
 		return result;
 	}
 
+	/**
+	 * Whether the heuristic never overestimates: the weights are normalized
+	 * to sum to 1, so this holds if none is negative and every feature with
+	 * any weight is admissible.
+	 */
+	public boolean isAdmissible() {
+		for(int i=0; i<this.features.length; i++) {
+			if(this.weights[i] < 0 || (this.weights[i] > 0 && !this.features[i].isAdmissible())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public Feature getFeature(int i) {
 		return this.features[i];
 	}
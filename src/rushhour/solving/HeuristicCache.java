@@ -0,0 +1,52 @@
+package rushhour.solving;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size, direct-mapped cache of heuristic values keyed by packed state.
+ * Each state has exactly one slot, and a newer state landing in the same slot
+ * simply replaces the old one, so memory stays bounded however long a search
+ * runs.
+ */
+class HeuristicCache {
+
+	private final long[] states;
+	private final double[] values;
+	private final int shift;
+
+	HeuristicCache(int size) {
+		int capacity = Integer.highestOneBit(Math.max(size, 2));
+		this.states = new long[capacity];
+		this.values = new double[capacity];
+		this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		this.clear();
+	}
+
+	/**
+	 * The cached value for the state, or NaN if it isn't cached.
+	 */
+	double get(long state) {
+		int slot = this.slot(state);
+		if(this.states[slot] == state) {
+			return this.values[slot];
+		}
+		return Double.NaN;
+	}
+
+	void put(long state, double value) {
+		int slot = this.slot(state);
+		this.states[slot] = state;
+		this.values[slot] = value;
+	}
+
+	void clear() {
+		// NaN marks an empty slot, whatever state it holds
+		Arrays.fill(this.values, Double.NaN);
+	}
+
+	private int slot(long state) {
+		// fibonacci hashing: the top bits of the product
+		return (int)((state * 0x9e3779b97f4a7c15L) >>> this.shift);
+	}
+
+}
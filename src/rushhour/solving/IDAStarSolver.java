@@ -0,0 +1,211 @@
+package rushhour.solving;
+
+import rushhour.core.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.LinkedList;
+
+/**
+ * IDA*: depth-first searches bounded by f = depth + h, raising the bound to
+ * the smallest f that went over it each time, so the first solution found is
+ * optimal if the heuristic is admissible. Memory stays fixed: one board made
+ * and unmade in place, a move buffer per ply, and a two-way set-associative
+ * transposition table of fixed size keyed by the board's Zobrist hash. The
+ * table remembers each state's h across iterations, and the depth it was last
+ * searched at in the current iteration, so a state reached again no shallower
+ * isn't searched twice. When both entries of a set are taken, the one with
+ * the least to lose is replaced: one left over from an earlier iteration,
+ * or else the deeper one. A move of the car the last move moved is never tried, since the two
+ * together are just one move of that car. The table takes DEFAULT_TABLE_SIZE
+ * slots, a few megabytes, unless the SolveOptions ask for another size; hard
+ * searches get through a lot less of their tree again with a bigger one.
+ */
+public class IDAStarSolver implements Solver {
+
+	// 3 MB
+	public static final int DEFAULT_TABLE_SIZE = 1 << 17;
+	// hash, h, depth and iteration
+	private static final int SLOT_BYTES = 8 + 8 + 4 + 4;
+
+	private final Heuristic heuristic;
+	// transposition table, in sets of two adjacent slots chosen by hash; an
+	// entry's depth only counts in the iteration it was written in
+	private long[] tableHashes = new long[0];
+	private double[] tableH;
+	private int[] tableDepths;
+	private int[] tableIterations;
+	private int shift;
+
+	// the slot the last call to h() found or put the board in
+	private int slot;
+	private int iteration;
+	private SolveOptions options;
+	private boolean stopped;
+	private SearchStats stats;
+	// table slots holding an h
+	private int filled;
+	private double nextBound;
+	private int solvedDepth;
+	// one move buffer per ply, and the moves made so far on the current line
+	private int[][] moveBuffers;
+	private int[] path;
+
+	public IDAStarSolver(Heuristic heuristic) {
+		this.heuristic = heuristic;
+	}
+
+	public SolveResult getSolution(Board board, SolveOptions options) {
+		Board current = board.copy();
+		long size = options.tableSize < 0 ? DEFAULT_TABLE_SIZE : options.tableSize;
+		int capacity = Integer.highestOneBit((int)Math.max(2, Math.min(size, 1 << 30)));
+		if(capacity != this.tableHashes.length) {
+			this.tableHashes = new long[capacity];
+			this.tableH = new double[capacity];
+			this.tableDepths = new int[capacity];
+			this.tableIterations = new int[capacity];
+			this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		}
+		// entries from another puzzle could share a hash, so start clean
+		Arrays.fill(this.tableH, Double.NaN);
+		Arrays.fill(this.tableIterations, 0);
+		this.iteration = 0;
+		this.options = options;
+		this.stopped = false;
+		this.stats = new SearchStats(options);
+		this.filled = 0;
+		this.moveBuffers = new int[0][];
+		this.path = new int[0];
+		double bound = this.h(current);
+		while(true) {
+			this.iteration++;
+			this.nextBound = Double.POSITIVE_INFINITY;
+			if(this.search(current, 0, bound, -1)) {
+				break;
+			}
+			if(this.stopped) {
+				this.finish();
+				return new SolveResult(SolveResult.Status.BUDGET_EXCEEDED, (int)this.stats.expanded, this.stats);
+			}
+			if(Double.isInfinite(this.nextBound)) {
+				// nothing left to raise the bound to, so no solution
+				this.finish();
+				return new SolveResult(SolveResult.Status.UNSOLVABLE, (int)this.stats.expanded, this.stats);
+			}
+			bound = this.nextBound;
+		}
+		// extract path
+		List<Move> moves = new LinkedList<>();
+		for(int i = 0; i < this.solvedDepth; i++) {
+			moves.add(Move.unpack(this.path[i]));
+		}
+		this.finish();
+		return new SolveResult(moves, current, (int)this.stats.expanded, this.stats);
+	}
+
+	// the table is the only per-state memory
+	private void finish() {
+		this.stats.closedSize(this.filled);
+		this.stats.bytes((long)SLOT_BYTES * this.tableHashes.length, this.filled);
+	}
+
+	/**
+	 * Returns true if a solution was found within the bound, leaving the board
+	 * in that solved position, or false with the board as it was.
+	 */
+	private boolean search(Board board, int depth, double bound, int lastCar) {
+		double f = depth + this.h(board);
+		int slot = this.slot;
+		if(f > bound) {
+			this.nextBound = Math.min(this.nextBound, f);
+			return false;
+		}
+		if(board.isSolved()) {
+			this.solvedDepth = depth;
+			return true;
+		}
+		if(this.tableIterations[slot] == this.iteration && this.tableDepths[slot] <= depth) {
+			// already searched this iteration from no deeper
+			this.stats.duplicates++;
+			return false;
+		}
+		if(this.options.exceeded(this.stats.expanded, 0)) {
+			this.stopped = true;
+			return false;
+		}
+		this.tableIterations[slot] = this.iteration;
+		this.tableDepths[slot] = depth;
+		this.ensureCapacity(board, depth + 1);
+		int[] moves = this.moveBuffers[depth];
+		long before = this.stats.clock();
+		int numMoves = board.generateMoves(moves);
+		this.stats.moveGenerationNanos += this.stats.clock() - before;
+		this.stats.expanded++;
+		for(int i = 0; i < numMoves; i++) {
+			int car = Move.index(moves[i]);
+			if(car == lastCar) {
+				continue;
+			}
+			this.stats.generated++;
+			before = this.stats.clock();
+			board.apply(moves[i]);
+			this.stats.moveGenerationNanos += this.stats.clock() - before;
+			this.path[depth] = moves[i];
+			if(this.search(board, depth + 1, bound, car)) {
+				return true;
+			}
+			before = this.stats.clock();
+			board.undo(moves[i]);
+			this.stats.moveGenerationNanos += this.stats.clock() - before;
+			if(this.stopped) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	// h from the table if it holds this board, otherwise computed and stored
+	// in place of the entry with the least to lose
+	private double h(Board board) {
+		long before = this.stats.clock();
+		long hash = board.hash();
+		int first = (int)(hash >>> this.shift) & ~1;
+		for(int slot = first; slot < first + 2; slot++) {
+			if(this.tableHashes[slot] == hash && !Double.isNaN(this.tableH[slot])) {
+				this.stats.hashingNanos += this.stats.clock() - before;
+				this.slot = slot;
+				return this.tableH[slot];
+			}
+		}
+		this.stats.hashingNanos += this.stats.clock() - before;
+		int victim = first;
+		if(this.tableIterations[first] == this.iteration && (this.tableIterations[first+1] != this.iteration
+				|| this.tableDepths[first+1] > this.tableDepths[first])) {
+			victim = first + 1;
+		}
+		before = System.nanoTime();
+		double h = this.heuristic.value(board);
+		this.stats.heuristicNanos += System.nanoTime() - before;
+		this.stats.heuristicEvaluations++;
+		if(Double.isNaN(this.tableH[victim])) {
+			this.filled++;
+		}
+		this.tableHashes[victim] = hash;
+		this.tableH[victim] = h;
+		this.tableIterations[victim] = 0;
+		this.slot = victim;
+		return h;
+	}
+
+	private void ensureCapacity(Board board, int depthLimit) {
+		if(this.moveBuffers.length < depthLimit) {
+			int[][] buffers = new int[depthLimit * 2][];
+			for(int i = 0; i < buffers.length; i++) {
+				buffers[i] = i < this.moveBuffers.length ? this.moveBuffers[i] : new int[board.maxMoves()];
+			}
+			this.moveBuffers = buffers;
+			this.path = Arrays.copyOf(this.path, buffers.length);
+		}
+	}
+
+}
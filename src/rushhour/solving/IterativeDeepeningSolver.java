@@ -8,37 +8,96 @@ import java.util.LinkedList;
 public class IterativeDeepeningSolver implements Solver {
 
 	private int statesVisited;
+	private SolveOptions options;
+	private boolean stopped;
+	private SearchStats stats;
+	// one move buffer per ply, and the moves made so far on the current line
+	private int[][] moveBuffers;
+	private int[] path;
 
-	public SolveResult getSolution(Board board) {
-		// run a depth-limited BFS tree search
-		SearchNode solvedNode = null;
+	/**
+	 * Cycles keep the tree search from ever running out of states, so without
+	 * a budget this doesn't return on a board that can't be solved.
+	 */
+	public SolveResult getSolution(Board board, SolveOptions options) {
+		// run a depth-limited DFS tree search, making and unmaking moves on a single board
+		Board current = board.copy();
 		int depthLimit = 1;
-		LinkedList<SearchNode> stack = new LinkedList<>();
+		this.moveBuffers = new int[0][];
+		this.path = new int[0];
+		this.statesVisited = 0;
+		this.options = options;
+		this.stopped = false;
+		// a tree search keeps no states, so there's nothing to hash, queue or
+		// count as closed
+		this.stats = new SearchStats(options);
+		int solvedDepth;
 		do {
-			System.err.println("depthLimit = " + depthLimit);
-			stack.clear();
-			solvedNode = this.depthLimitedDFS(board, stack, depthLimit++);
-		} while(solvedNode == null);
+			this.ensureCapacity(current, depthLimit);
+			solvedDepth = this.depthLimitedDFS(current, 0, depthLimit++);
+		} while(solvedDepth == -1 && !this.stopped);
+		if(this.stopped) {
+			return new SolveResult(SolveResult.Status.BUDGET_EXCEEDED, this.statesVisited, this.stats);
+		}
 		// extract path
-		return new SolveResult(solvedNode.getPath(), solvedNode.board, this.statesVisited);
+		List<Move> moves = new LinkedList<>();
+		for(int i = 0; i < solvedDepth; i++) {
+			moves.add(Move.unpack(this.path[i]));
+		}
+		return new SolveResult(moves, current, this.statesVisited, this.stats);
 	}
 
-	private SearchNode depthLimitedDFS(Board board, LinkedList<SearchNode> stack, int depthLimit) {
-		stack.offer(new SearchNode(board));
-		while(!stack.isEmpty()) {
-			SearchNode cur = stack.pop();
-			this.statesVisited++;
-			if(cur.board.isSolved()) {
-				return cur;
+	private void ensureCapacity(Board board, int depthLimit) {
+		if(this.moveBuffers.length < depthLimit) {
+			int[][] buffers = new int[depthLimit][];
+			for(int i = 0; i < depthLimit; i++) {
+				buffers[i] = i < this.moveBuffers.length ? this.moveBuffers[i] : new int[board.maxMoves()];
 			}
-			if(cur.depth == depthLimit) {
-				continue;
+			this.moveBuffers = buffers;
+			this.path = new int[depthLimit];
+		}
+	}
+
+	/**
+	 * Returns the depth at which a solution was found, leaving the board in
+	 * that solved position, or -1 (with the board as it was) if there is none
+	 * within the limit or the budget ran out.
+	 */
+	private int depthLimitedDFS(Board board, int depth, int depthLimit) {
+		this.statesVisited++;
+		if(this.options.exceeded(this.statesVisited, 0)) {
+			this.stopped = true;
+			return -1;
+		}
+		if(board.isSolved()) {
+			return depth;
+		}
+		if(depth == depthLimit) {
+			return -1;
+		}
+		int[] moves = this.moveBuffers[depth];
+		long before = this.stats.clock();
+		int numMoves = board.generateMoves(moves);
+		this.stats.moveGenerationNanos += this.stats.clock() - before;
+		this.stats.expanded++;
+		this.stats.generated += numMoves;
+		for(int i = 0; i < numMoves; i++) {
+			before = this.stats.clock();
+			board.apply(moves[i]);
+			this.stats.moveGenerationNanos += this.stats.clock() - before;
+			this.path[depth] = moves[i];
+			int solvedDepth = this.depthLimitedDFS(board, depth + 1, depthLimit);
+			if(solvedDepth != -1) {
+				return solvedDepth;
 			}
-			for(Move move : cur.board.allPossibleMoves()) {
-				stack.push(new SearchNode(cur.board.getNeighborBoard(move), cur, move));
+			before = this.stats.clock();
+			board.undo(moves[i]);
+			this.stats.moveGenerationNanos += this.stats.clock() - before;
+			if(this.stopped) {
+				return -1;
 			}
 		}
-		return null;
+		return -1;
 	}
 
 }
@@ -0,0 +1,293 @@
+package rushhour.solving;
+
+import rushhour.core.*;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hash-distributed A*. Each worker thread owns the states whose hash lands
+ * on it, with its own open list, node table and heuristic. A worker expands
+ * its own nodes and sends each successor to the successor's owner through
+ * that owner's lock-free inbox, where the owner does duplicate detection and
+ * evaluates the heuristic.
+ *
+ * A solved node popped from any worker becomes the incumbent if it is
+ * shorter, and every worker drops nodes whose f can't beat it. The search
+ * ends only when every worker is out of work and no node is still in
+ * transit, so with an admissible heuristic nothing shorter than the
+ * incumbent was left unexplored. Workers count themselves, and each node in
+ * transit counts once, in a single counter: a worker counts itself back in
+ * before taking a node off its inbox and uncounting it, so the counter can
+ * only reach zero once all the work is done. A worker with nothing to do
+ * spins briefly and then parks until a node is sent to it, the counter
+ * reaches zero or the search is stopped.
+ *
+ * Each worker checks the budget against its own counts times the number of
+ * workers, since states are spread evenly between them, and the first to go
+ * over it stops them all. Each worker keeps its own stats, which are added
+ * up at the end; peak sizes are summed, so they're an upper bound.
+ */
+public class ParallelAStarSolver implements Solver {
+
+	// how long an idle worker spins before parking, and the longest it parks
+	private static final int SPINS = 1000;
+	private static final long PARK_NANOS = 1_000_000;
+
+	private final Heuristic heuristic;
+	private final int numThreads;
+	private CarLayout layout;
+
+	private Worker[] workers;
+	// the length of the best solution found so far, and its node
+	private AtomicInteger incumbent;
+	private SearchNode best;
+	// active workers plus nodes in transit
+	private AtomicLong work;
+	private SolveOptions options;
+	private volatile boolean stopped;
+
+	public ParallelAStarSolver(Heuristic heuristic) {
+		this(heuristic, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelAStarSolver(Heuristic heuristic, int numThreads) {
+		this.heuristic = heuristic;
+		this.numThreads = Math.max(numThreads, 1);
+	}
+
+	public SolveResult getSolution(Board board, SolveOptions options) {
+		SearchStats stats = new SearchStats(options);
+		this.layout = board.getLayout();
+		this.options = options;
+		this.stopped = false;
+		this.incumbent = new AtomicInteger(Integer.MAX_VALUE);
+		this.best = null;
+		this.work = new AtomicLong(this.numThreads);
+		this.workers = new Worker[this.numThreads];
+		for(int i = 0; i < this.numThreads; i++) {
+			this.workers[i] = new Worker(this.heuristic.copy(), new SearchStats(options));
+		}
+		long start = this.layout.encode(board);
+		this.send(new SearchNode(start));
+		for(int i = 0; i < this.numThreads; i++) {
+			this.workers[i].thread = new Thread(this.workers[i], "astar-worker-" + i);
+			this.workers[i].thread.start();
+		}
+		boolean interrupted = false;
+		for(Worker worker : this.workers) {
+			// the workers' tables are only safe to read once they have all
+			// finished, so on an interrupt stop them and keep waiting
+			while(true) {
+				try {
+					worker.thread.join();
+					break;
+				} catch(InterruptedException e) {
+					interrupted = true;
+					this.stop();
+				}
+			}
+		}
+		if(interrupted) {
+			// leave the interrupt for the caller
+			Thread.currentThread().interrupt();
+		}
+		int expanded = 0;
+		for(Worker worker : this.workers) {
+			expanded += worker.expanded;
+			worker.stats.expanded = worker.expanded;
+			worker.stats.closedSize(worker.nodes.size());
+			worker.stats.bytes(AStarSearchSolver.nodeTableBytes(worker.nodes) + 4L * worker.stats.peakOpen, worker.nodes.size());
+			stats.add(worker.stats);
+		}
+		if(this.stopped) {
+			return new SolveResult(SolveResult.Status.BUDGET_EXCEEDED, expanded, stats);
+		}
+		if(this.best == null) {
+			return new SolveResult(SolveResult.Status.UNSOLVABLE, expanded, stats);
+		}
+		return new SolveResult(this.best.getPath(), this.best.getBoard(this.layout), expanded, stats);
+	}
+
+	private int owner(long state) {
+		return (int)(((state * 0x9e3779b97f4a7c15L) >>> 32) % this.numThreads);
+	}
+
+	private void send(SearchNode node) {
+		this.work.incrementAndGet();
+		Worker owner = this.workers[this.owner(node.state)];
+		owner.inbox.offer(node);
+		if(owner.waiting) {
+			LockSupport.unpark(owner.thread);
+		}
+	}
+
+	private void stop() {
+		this.stopped = true;
+		this.wakeAll();
+	}
+
+	private void wakeAll() {
+		for(Worker worker : this.workers) {
+			if(worker.thread != null) {
+				LockSupport.unpark(worker.thread);
+			}
+		}
+	}
+
+	private synchronized void solved(SearchNode node) {
+		if(node.depth < this.incumbent.get()) {
+			this.best = node;
+			this.incumbent.set(node.depth);
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		final ConcurrentLinkedQueue<SearchNode> inbox = new ConcurrentLinkedQueue<>();
+		private final Heuristic heuristic;
+		final LongObjectHashMap<SearchNode> nodes = new LongObjectHashMap<SearchNode>();
+		private BucketOpenList open = new BucketOpenList(AStarSearchSolver.DEFAULT_SCALE);
+		private final int[] moves = new int[layout.maxMoves()];
+		int expanded;
+		final SearchStats stats;
+		Thread thread;
+		// set while parked, so senders know to wake it
+		volatile boolean waiting;
+
+		Worker(Heuristic heuristic, SearchStats stats) {
+			this.heuristic = heuristic;
+			this.stats = stats;
+		}
+
+		public void run() {
+			this.search();
+			this.stats.finish();
+		}
+
+		private void search() {
+			while(!stopped) {
+				this.drainInbox();
+				if(options.exceeded((long)this.expanded * numThreads, (long)this.open.size() * numThreads)) {
+					stop();
+					return;
+				}
+				long before = this.stats.clock();
+				SearchNode current = this.open.pop();
+				this.stats.queueNanos += this.stats.clock() - before;
+				if(current != null && current.f < incumbent.get()) {
+					this.expand(current);
+					continue;
+				}
+				// everything left here is beaten by the incumbent
+				this.open = new BucketOpenList(AStarSearchSolver.DEFAULT_SCALE);
+				if(!this.idle()) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Waits for more nodes. Returns true once some arrive, or false
+		 * once there is no work left anywhere or the search was stopped.
+		 */
+		private boolean idle() {
+			if(work.decrementAndGet() == 0) {
+				// the last one out lets the parked workers see it
+				wakeAll();
+				return false;
+			}
+			int spins = 0;
+			while(!stopped) {
+				if(!this.inbox.isEmpty()) {
+					work.incrementAndGet();
+					return true;
+				}
+				if(work.get() == 0) {
+					return false;
+				}
+				if(spins < SPINS) {
+					spins++;
+					Thread.onSpinWait();
+					continue;
+				}
+				// announce the wait before the last look, so a sender either
+				// sees it and unparks this thread or its node is seen here
+				this.waiting = true;
+				if(this.inbox.isEmpty() && work.get() != 0 && !stopped) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				this.waiting = false;
+			}
+			return false;
+		}
+
+		private void drainInbox() {
+			while(true) {
+				long before = this.stats.clock();
+				SearchNode received = this.inbox.poll();
+				this.stats.queueNanos += this.stats.clock() - before;
+				if(received == null) {
+					return;
+				}
+				this.receive(received);
+				work.decrementAndGet();
+			}
+		}
+
+		private void receive(SearchNode received) {
+			long before = this.stats.clock();
+			SearchNode node = this.nodes.get(received.state);
+			this.stats.hashingNanos += this.stats.clock() - before;
+			if(node == null) {
+				node = received;
+				before = System.nanoTime();
+				node.setHeuristic(this.heuristic.value(layout.toBoard(node.state)));
+				this.stats.heuristicNanos += System.nanoTime() - before;
+				this.stats.heuristicEvaluations++;
+				before = this.stats.clock();
+				this.nodes.put(node.state, node);
+				this.stats.hashingNanos += this.stats.clock() - before;
+			} else if(received.depth < node.depth) {
+				// a shorter way in: reopen it, even if it was already expanded
+				node.setParent(received.parent, received.move);
+			} else {
+				this.stats.duplicates++;
+				return;
+			}
+			if(node.f < incumbent.get()) {
+				before = this.stats.clock();
+				this.open.push(node);
+				this.stats.queueNanos += this.stats.clock() - before;
+				this.stats.openSize(this.open.size());
+			}
+		}
+
+		private void expand(SearchNode current) {
+			if(layout.isSolved(current.state)) {
+				solved(current);
+				return;
+			}
+			this.expanded++;
+			long before = this.stats.clock();
+			int numMoves = layout.generateMoves(current.state, this.moves);
+			this.stats.moveGenerationNanos += this.stats.clock() - before;
+			this.stats.generated += numMoves;
+			for(int i = 0; i < numMoves; i++) {
+				before = this.stats.clock();
+				long neighbor = layout.apply(current.state, this.moves[i]);
+				long applied = this.stats.clock();
+				this.stats.moveGenerationNanos += applied - before;
+				if(current.depth + 1 >= incumbent.get()) {
+					continue;
+				}
+				send(new SearchNode(neighbor, current, this.moves[i]));
+				this.stats.queueNanos += this.stats.clock() - applied;
+			}
+		}
+
+	}
+
+}
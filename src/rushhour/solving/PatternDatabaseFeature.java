@@ -0,0 +1,204 @@
+package rushhour.solving;
+
+import rushhour.core.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pattern database heuristic for A*. Abstracts a board down to the VIP, the
+ * other horizontal cars in its row, the vertical cars (any of which can cross
+ * its row) and the horizontal cars nearest its row, as many as fit in
+ * MAX_ENTRIES states, dropping everything else. Dropping cars only makes moves
+ * easier, so the exact number of moves to a solution in the abstraction never
+ * overestimates the real one. Those distances are found once per layout by a
+ * BFS out from the abstraction's solved states, and kept as one byte per
+ * abstract state, indexed by the state's mixed-radix rank. Tables are shared
+ * by every instance and the least recently used are dropped once they add up
+ * to more than MAX_CACHED_BYTES, so a long batch run doesn't keep one per
+ * layout it has seen.
+ */
+public class PatternDatabaseFeature implements Feature {
+
+	// the biggest table we'll build; cars that don't fit are left out
+	private static final long MAX_ENTRIES = 1 << 22;
+	// how much table to keep around across layouts
+	private static final long MAX_CACHED_BYTES = 16 * MAX_ENTRIES;
+
+	// access-ordered, so iteration starts at the least recently used
+	private static final Map<CarLayout, Pattern> patterns = new LinkedHashMap<>(16, 0.75f, true);
+	private static long cachedBytes;
+
+	private CarLayout lastLayout;
+	private Pattern lastPattern;
+
+	public String toString() {
+		return "pattern";
+	}
+
+	public boolean isAdmissible() {
+		return true;
+	}
+
+	public double value(Board board) {
+		CarLayout layout = board.getLayout();
+		int depth = this.patternFor(layout).depth(layout, layout.encode(board));
+		// unsolvable in the abstraction means unsolvable for real
+		return depth == -1 ? Double.POSITIVE_INFINITY : depth;
+	}
+
+	private Pattern patternFor(CarLayout layout) {
+		if(layout != this.lastLayout) {
+			this.lastPattern = shared(layout);
+			this.lastLayout = layout;
+		}
+		return this.lastPattern;
+	}
+
+	// built outside the lock, so threads on different layouts don't wait on
+	// each other; two threads on the same layout may both build it, and one
+	// copy wins
+	private static Pattern shared(CarLayout layout) {
+		synchronized(patterns) {
+			Pattern pattern = patterns.get(layout);
+			if(pattern != null) {
+				return pattern;
+			}
+		}
+		Pattern built = new Pattern(layout);
+		synchronized(patterns) {
+			Pattern pattern = patterns.get(layout);
+			if(pattern != null) {
+				return pattern;
+			}
+			patterns.put(layout, built);
+			cachedBytes += built.depths.length;
+			// evict, but never the table just added
+			Iterator<Pattern> eldest = patterns.values().iterator();
+			while(cachedBytes > MAX_CACHED_BYTES && patterns.size() > 1) {
+				cachedBytes -= eldest.next().depths.length;
+				eldest.remove();
+			}
+			return built;
+		}
+	}
+
+	private static class Pattern {
+		// the pattern's cars, as indices into the full layout
+		private final int[] cars;
+		// rank = sum of position(cars[i]) * radix[i]
+		private final int[] radix;
+		// depth + 1 of each abstract state, 0 if it can't reach a solution
+		private final byte[] depths;
+
+		Pattern(CarLayout layout) {
+			List<Integer> chosen = new ArrayList<>();
+			List<Integer> others = new ArrayList<>();
+			for(int car = 1; car < layout.numCars(); car++) {
+				if(layout.isHorizontal(car) && layout.lane(car) == layout.lane(0)) {
+					chosen.add(car);
+				} else {
+					others.add(car);
+				}
+			}
+			// then as many of the rest as fit: vertical cars from the right, since
+			// those are the ones in the VIP's way, then the horizontal cars nearest
+			// its row, which are the ones in theirs
+			others.sort((a, b) -> this.priority(layout, a) - this.priority(layout, b));
+			long size = layout.numPositions(0);
+			for(int car : chosen) {
+				size *= layout.numPositions(car);
+			}
+			for(int car : others) {
+				if(size * layout.numPositions(car) > MAX_ENTRIES) {
+					break;
+				}
+				size *= layout.numPositions(car);
+				chosen.add(car);
+			}
+			chosen.add(0, 0);
+			this.cars = new int[chosen.size()];
+			this.radix = new int[chosen.size()];
+			int r = 1;
+			for(int i = 0; i < this.cars.length; i++) {
+				this.cars[i] = chosen.get(i);
+				this.radix[i] = r;
+				r *= layout.numPositions(this.cars[i]);
+			}
+			this.depths = new byte[r];
+			this.search(layout.subset(this.cars));
+		}
+
+		private int priority(CarLayout layout, int car) {
+			if(!layout.isHorizontal(car)) {
+				return -layout.lane(car);
+			}
+			return layout.getHeight() + Math.abs(layout.lane(car) - layout.lane(0));
+		}
+
+		/**
+		 * BFS over the abstraction, outward from all of its solved states.
+		 * A move of car i by vector changes the rank by vector * radix[i].
+		 */
+		private void search(CarLayout abstraction) {
+			int filled = 0;
+			for(int i = 0; i < abstraction.numCars(); i++) {
+				filled += abstraction.length(i);
+			}
+			int[] frontier = new int[this.depths.length];
+			int n = 0;
+			for(int rank = 0; rank < this.depths.length; rank++) {
+				long state = this.unrank(abstraction, rank);
+				if(abstraction.isSolved(state) && Long.bitCount(abstraction.rowBits(state)) == filled) {
+					this.depths[rank] = 1;
+					frontier[n++] = rank;
+				}
+			}
+			int[] moves = new int[abstraction.maxMoves()];
+			int[] next = new int[this.depths.length];
+			for(int depth = 1; n > 0; depth++) {
+				int m = 0;
+				for(int i = 0; i < n; i++) {
+					int rank = frontier[i];
+					int numMoves = abstraction.generateMoves(this.unrank(abstraction, rank), moves);
+					for(int j = 0; j < numMoves; j++) {
+						int neighbor = rank + Move.vector(moves[j]) * this.radix[Move.index(moves[j])];
+						if(this.depths[neighbor] == 0) {
+							this.depths[neighbor] = (byte)Math.min(depth + 1, 0xff);
+							next[m++] = neighbor;
+						}
+					}
+				}
+				int[] swap = frontier;
+				frontier = next;
+				next = swap;
+				n = m;
+			}
+		}
+
+		private long unrank(CarLayout abstraction, int rank) {
+			long state = 0L;
+			for(int i = this.cars.length - 1; i >= 0; i--) {
+				state = abstraction.move(state, i, rank / this.radix[i]);
+				rank %= this.radix[i];
+			}
+			return state;
+		}
+
+		/**
+		 * The abstract distance of a state of the full layout, or -1 if the
+		 * abstraction can't be solved from it.
+		 */
+		int depth(CarLayout layout, long state) {
+			int rank = 0;
+			for(int i = 0; i < this.cars.length; i++) {
+				rank += layout.position(state, this.cars[i]) * this.radix[i];
+			}
+			return (this.depths[rank] & 0xff) - 1;
+		}
+	}
+
+}
@@ -1,43 +1,51 @@
 package rushhour.solving;
 
 import rushhour.core.Board;
+import rushhour.core.CarLayout;
 import rushhour.core.Move;
-import rushhour.core.BoardGraph;
 
 import java.util.List;
 import java.util.LinkedList;
 
 public class SearchNode {
 
-	public BoardGraph.Vertex vertex;
-	public Board board; // use one or the other
+	public long state;
+	public Board board; // decoded lazily, only by searches that need it
 	public SearchNode parent;
-	public Move move;
-	public int depth;
+	public int move; // packed, see Move.pack()
+	public int depth; // g, the number of moves from the root
+	// whether move, made from the parent's state, reaches the mirror image of
+	// this state rather than the state itself (see CarLayout.mirror()), for
+	// searches that keep one node per mirror pair
+	public boolean mirrored;
+	// the heuristic estimate of moves left, and depth + weight * h, for
+	// informed searches; set once by setHeuristic() so queues can compare on them
+	public double h;
+	public double f;
+	private double weight = 1.0;
 
-	public SearchNode(BoardGraph.Vertex vertex) {
-		this(vertex, null, null);
+	public SearchNode(long state) {
+		this(state, null, 0);
 	}
 
-	public SearchNode(Board board) {
-		this(board, null, null);
-	}
-
-	public SearchNode(Board board, SearchNode parent, Move move) {
-		this.board = board;
+	public SearchNode(long state, SearchNode parent, int move) {
+		this.state = state;
 		this.setDepthAndMove(parent, move);
 	}
 
-	public SearchNode(BoardGraph.Vertex vertex, SearchNode parent, Move move) {
-		this.vertex = vertex;
-		this.board = vertex.board;
+	/**
+	 * Moves this node under a new parent, as when a search finds a shorter
+	 * way to its state, keeping f in step with the new depth.
+	 */
+	public void setParent(SearchNode parent, int move) {
 		this.setDepthAndMove(parent, move);
+		this.f = this.depth + this.weight * this.h;
 	}
 
-	private void setDepthAndMove(SearchNode parent, Move move) {
+	private void setDepthAndMove(SearchNode parent, int move) {
 		if(parent == null) {
 			this.parent = null;
-			this.move = null;
+			this.move = 0;
 			this.depth = 0;
 		} else {
 			this.parent = parent;
@@ -46,11 +54,34 @@ public class SearchNode {
 		}
 	}
 
+	public void setHeuristic(double h) {
+		this.setHeuristic(h, 1.0);
+	}
+
+	/**
+	 * Sets h and f = depth + weight * h, for weighted searches.
+	 */
+	public void setHeuristic(double h, double weight) {
+		this.h = h;
+		this.weight = weight;
+		this.f = this.depth + weight * h;
+	}
+
+	/**
+	 * The full board for this node, decoded the first time it's asked for.
+	 */
+	public Board getBoard(CarLayout layout) {
+		if(this.board == null) {
+			this.board = layout.toBoard(this.state);
+		}
+		return this.board;
+	}
+
 	public List<Move> getPath() {
 		List<Move> ret = new LinkedList<>();
 		SearchNode cur = this;
-		while(cur.move != null) {
-			ret.add(0, cur.move);
+		while(cur.parent != null) {
+			ret.add(0, Move.unpack(cur.move));
 			cur = cur.parent;
 		}
 		return ret;
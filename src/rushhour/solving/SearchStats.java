@@ -0,0 +1,139 @@
+package rushhour.solving;
+
+import java.util.Locale;
+
+/**
+ * What a search did, for comparing solvers and heuristics. Counts are always
+ * kept. The split of wall time into move generation, hashing and queue work
+ * costs a clock read around each of those steps, so it's only kept when the
+ * SolveOptions ask for it, and is zero otherwise; heuristic time is always
+ * kept, since evaluations are slow enough not to notice the clock.
+ *
+ * bytesPerState is an estimate from the sizes of the solver's tables and
+ * nodes at the end of the search, divided by the states they held. Added
+ * stats keep the sizes and states of every table, so theirs is the
+ * combined tables' bytes over the combined states.
+ */
+public class SearchStats {
+
+	// rough size of a SearchNode with compressed references: header, fields, padding
+	static final int NODE_BYTES = 64;
+
+	public long expanded;
+	public long generated;
+	// successors that were already known and so not queued again
+	public long duplicates;
+	public long peakOpen;
+	public long peakClosed;
+	public long heuristicEvaluations;
+	public long heuristicNanos;
+	public long moveGenerationNanos;
+	public long hashingNanos;
+	public long queueNanos;
+	public long wallNanos;
+	public double bytesPerState;
+
+	private final boolean timed;
+	// what bytesPerState was worked out from
+	private long tableBytes;
+	private long tableStates;
+	private final long startNanos = System.nanoTime();
+
+	public SearchStats(SolveOptions options) {
+		this.timed = options.timePhases;
+	}
+
+	/**
+	 * The time, if phases are being timed, or 0, so that
+	 * stats.hashingNanos += stats.clock() - before is free when they aren't.
+	 */
+	long clock() {
+		return this.timed ? System.nanoTime() : 0L;
+	}
+
+	void openSize(long size) {
+		if(size > this.peakOpen) {
+			this.peakOpen = size;
+		}
+	}
+
+	void closedSize(long size) {
+		if(size > this.peakClosed) {
+			this.peakClosed = size;
+		}
+	}
+
+	void bytes(long bytes, long states) {
+		this.tableBytes = bytes;
+		this.tableStates = states;
+		this.bytesPerState = states == 0 ? 0.0 : (double)bytes / states;
+	}
+
+	/**
+	 * Adds another search's counts and times into these, as when workers
+	 * search in parallel; peaks are added too, as an upper bound on the
+	 * combined peak. The searches ran side by side, so the wall time is the
+	 * longer of the two.
+	 */
+	void add(SearchStats other) {
+		this.expanded += other.expanded;
+		this.generated += other.generated;
+		this.duplicates += other.duplicates;
+		this.peakOpen += other.peakOpen;
+		this.peakClosed += other.peakClosed;
+		this.heuristicEvaluations += other.heuristicEvaluations;
+		this.heuristicNanos += other.heuristicNanos;
+		this.moveGenerationNanos += other.moveGenerationNanos;
+		this.hashingNanos += other.hashingNanos;
+		this.queueNanos += other.queueNanos;
+		this.wallNanos = Math.max(this.wallNanos, other.wallNanos);
+		this.bytes(this.tableBytes + other.tableBytes, this.tableStates + other.tableStates);
+	}
+
+	// stops the wall clock
+	void finish() {
+		this.wallNanos = System.nanoTime() - this.startNanos;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("expanded: " + this.expanded + "\n");
+		sb.append("generated: " + this.generated + "\n");
+		sb.append("duplicates: " + this.duplicates + "\n");
+		sb.append("peak open: " + this.peakOpen + "\n");
+		sb.append("peak closed: " + this.peakClosed + "\n");
+		sb.append("heuristic evaluations: " + this.heuristicEvaluations + " (" + millis(this.heuristicNanos) + " ms)\n");
+		if(this.timed) {
+			sb.append("move generation: " + millis(this.moveGenerationNanos) + " ms\n");
+			sb.append("hashing: " + millis(this.hashingNanos) + " ms\n");
+			sb.append("queue: " + millis(this.queueNanos) + " ms\n");
+		}
+		sb.append("wall time: " + millis(this.wallNanos) + " ms\n");
+		sb.append(String.format("bytes per state: %.1f", this.bytesPerState));
+		return sb.toString();
+	}
+
+	/**
+	 * The fields as one JSON object, times in nanoseconds.
+	 */
+	public String toJson() {
+		return "{\"expanded\":" + this.expanded
+			+ ",\"generated\":" + this.generated
+			+ ",\"duplicates\":" + this.duplicates
+			+ ",\"peakOpen\":" + this.peakOpen
+			+ ",\"peakClosed\":" + this.peakClosed
+			+ ",\"heuristicEvaluations\":" + this.heuristicEvaluations
+			+ ",\"heuristicNanos\":" + this.heuristicNanos
+			+ ",\"moveGenerationNanos\":" + this.moveGenerationNanos
+			+ ",\"hashingNanos\":" + this.hashingNanos
+			+ ",\"queueNanos\":" + this.queueNanos
+			+ ",\"wallNanos\":" + this.wallNanos
+			+ ",\"bytesPerState\":" + String.format(Locale.ROOT, "%.1f", this.bytesPerState)
+			+ "}";
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.1f", nanos / 1e6);
+	}
+
+}
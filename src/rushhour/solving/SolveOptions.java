@@ -0,0 +1,59 @@
+package rushhour.solving;
+
+/**
+ * Limits on a getSolution() call. A solver that goes over any of them gives
+ * up and returns a BUDGET_EXCEEDED result, with the statistics it had so far.
+ * A limit below zero means no limit. cancel() can be called from any thread,
+ * and the solver notices it at its next expansion.
+ */
+public class SolveOptions {
+
+	// how many expansions between looks at the clock
+	private static final int CLOCK_INTERVAL = 1024;
+
+	// the most states the solver may expand
+	public long maxExpansions = -1;
+	// the most states the solver may hold waiting to be expanded, which is
+	// what its memory grows with. Solvers that search depth-first don't
+	// hold any.
+	public long maxOpenSize = -1;
+	// System.currentTimeMillis() to give up at
+	public long deadline = -1;
+	// slots in the transposition table of solvers that keep one of fixed
+	// size (IDA*), or -1 for the solver's default
+	public long tableSize = -1;
+	// split the search's wall time into phases, see SearchStats
+	public boolean timePhases;
+	private volatile boolean cancelled;
+
+	public void setTimeLimit(long millis) {
+		this.deadline = millis < 0 ? -1 : System.currentTimeMillis() + millis;
+	}
+
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * Whether a search that has expanded this many states, and has this many
+	 * waiting, should stop. The clock is only read every CLOCK_INTERVAL
+	 * expansions.
+	 */
+	public boolean exceeded(long expanded, long openSize) {
+		if(this.cancelled) {
+			return true;
+		}
+		if(this.maxExpansions >= 0 && expanded >= this.maxExpansions) {
+			return true;
+		}
+		if(this.maxOpenSize >= 0 && openSize > this.maxOpenSize) {
+			return true;
+		}
+		return this.deadline >= 0 && expanded % CLOCK_INTERVAL == 0 && System.currentTimeMillis() >= this.deadline;
+	}
+
+}
@@ -6,12 +6,50 @@ import rushhour.core.Move;
 import java.util.List;
 
 public class SolveResult {
+	public enum Status { SOLVED, UNSOLVABLE, BUDGET_EXCEEDED }
+
+	public Status status = Status.SOLVED;
+	// null unless solved
 	public List<Move> path;
 	public Board solvedBoard;
 	public int visitedStates;
-	public SolveResult(List<Move> path, Board solvedBoard, int visitedStates) {
+	// the path is at most this many times longer than optimal, when the
+	// solver can say so (NaN if it can't)
+	public double bound = Double.NaN;
+	public SearchStats stats;
+
+	/**
+	 * Stops the stats' wall clock, so make this last.
+	 */
+	public SolveResult(List<Move> path, Board solvedBoard, int visitedStates, SearchStats stats) {
 		this.path = path;
 		this.solvedBoard = solvedBoard;
 		this.visitedStates = visitedStates;
+		this.stats = stats;
+		stats.finish();
+	}
+
+	/**
+	 * A search that ended without a solution, after visiting this many states.
+	 */
+	public SolveResult(Status status, int visitedStates, SearchStats stats) {
+		this.status = status;
+		this.visitedStates = visitedStates;
+		this.stats = stats;
+		stats.finish();
+	}
+
+	/**
+	 * The status, path length (-1 if unsolved), visited states, bound (if
+	 * known) and stats as one JSON object.
+	 */
+	public String toJson() {
+		String json = "{\"status\":\"" + this.status.toString().toLowerCase() + "\""
+			+ ",\"pathLength\":" + (this.path == null ? -1 : this.path.size())
+			+ ",\"visitedStates\":" + this.visitedStates;
+		if(!Double.isNaN(this.bound)) {
+			json += ",\"bound\":" + this.bound;
+		}
+		return json + ",\"stats\":" + this.stats.toJson() + "}";
 	}
 }
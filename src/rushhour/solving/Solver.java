@@ -5,5 +5,9 @@ import rushhour.core.*;
 import java.util.List;
 
 public interface Solver {
-	public SolveResult getSolution(Board board);
+	public default SolveResult getSolution(Board board) {
+		return this.getSolution(board, new SolveOptions());
+	}
+
+	public SolveResult getSolution(Board board, SolveOptions options);
 }
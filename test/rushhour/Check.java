@@ -0,0 +1,33 @@
+package rushhour;
+
+/**
+ * Bookkeeping for the regression checks. Every check is counted, and a
+ * failed one is printed with what it was about, so one run reports every
+ * failure rather than stopping at the first.
+ */
+public class Check {
+
+	private static int checks;
+	private static int failures;
+
+	public static void that(String what, boolean ok) {
+		checks++;
+		if(!ok) {
+			failures++;
+			System.out.println("FAILED: " + what);
+		}
+	}
+
+	public static void equal(String what, long expected, long actual) {
+		that(what + ": expected " + expected + ", got " + actual, expected == actual);
+	}
+
+	public static int checks() {
+		return checks;
+	}
+
+	public static int failures() {
+		return failures;
+	}
+
+}
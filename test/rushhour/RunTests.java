@@ -0,0 +1,26 @@
+package rushhour;
+
+import rushhour.core.*;
+import rushhour.solving.*;
+
+/**
+ * Runs the regression checks, from the top of the repository so that the
+ * puzzle files are found, and exits with 1 if any of them failed. The
+ * expected numbers in the checks are what the original code gave.
+ */
+public class RunTests {
+
+	public static void main(String[] args) throws Exception {
+		CarLayoutTest.run();
+		EquivalenceClassTest.run();
+		DepthDatabaseTest.run();
+		SolutionCacheTest.run();
+		PatternDatabaseFeatureTest.run();
+		SolverTest.run();
+		System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+		if(Check.failures() > 0) {
+			System.exit(1);
+		}
+	}
+
+}
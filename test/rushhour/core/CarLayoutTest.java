@@ -0,0 +1,68 @@
+package rushhour.core;
+
+import rushhour.Check;
+import rushhour.io.BoardIO;
+
+/**
+ * Round trips through the packed states, for a 6x6 board and for 7x7 and 8x8
+ * boards with too many cars for three bits each, which are packed a line at
+ * a time instead. Every state of each board's class is unpacked, packed again
+ * and moved along every legal move, and the results are compared with the
+ * same moves made on the Board.
+ */
+public class CarLayoutTest {
+
+	static final String[] PUZZLES = {
+		"puzzles/for_table/9.txt",
+		"test/puzzles/wide_7x7.txt",
+		"test/puzzles/wide_8x8.txt",
+	};
+
+	public static void run() {
+		Check.that("8x8 boards fit", Bitboard.fits(8, 8));
+		Check.that("9x9 boards don't fit", !Bitboard.fits(9, 9));
+		Check.that("6x9 boards don't fit", !Bitboard.fits(6, 9));
+		for(String puzzle : PUZZLES) {
+			roundTrip(puzzle);
+		}
+	}
+
+	private static void roundTrip(String puzzle) {
+		Board board = BoardIO.read(puzzle);
+		CarLayout layout = board.getLayout();
+		int[] moves = new int[layout.maxMoves()];
+		int[] positions = new int[layout.numCars()];
+		int bad = 0;
+		long[] states = new EquivalenceClass(board).states();
+		for(long state : states) {
+			Board unpacked = layout.toBoard(state);
+			if(layout.encode(unpacked) != state) {
+				bad++;
+			}
+			for(int car = 0; car < positions.length; car++) {
+				positions[car] = layout.position(state, car);
+			}
+			if(layout.encode(positions) != state) {
+				bad++;
+			}
+			if(layout.isSolved(state) != unpacked.isSolved()) {
+				bad++;
+			}
+			int numMoves = layout.generateMoves(state, moves);
+			if(numMoves != unpacked.allPossibleMoves().size()) {
+				bad++;
+			}
+			for(int i = 0; i < numMoves; i++) {
+				Board moved = unpacked.copy();
+				if(!moved.move(Move.unpack(moves[i])) || layout.encode(moved) != layout.apply(state, moves[i])) {
+					bad++;
+				}
+			}
+			if(layout.exitsOnMiddleRow() && layout.reflect().reflect(layout.reflect(state)) != state) {
+				bad++;
+			}
+		}
+		Check.equal(puzzle + " states that don't round trip", 0, bad);
+	}
+
+}
@@ -0,0 +1,60 @@
+package rushhour.core;
+
+import rushhour.Check;
+import rushhour.generation.FastBoardGenerator;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Builds a small depth database, of 6x6 boards with up to three cars, and
+ * checks random boards' depths and solutions in it against their classes.
+ */
+public class DepthDatabaseTest {
+
+	private static final int MAX_CARS = 3;
+	private static final int NUM_BOARDS = 300;
+
+	public static void run() throws Exception {
+		File file = File.createTempFile("rushhour-test", ".db");
+		try {
+			DepthDatabaseBuilder builder = new DepthDatabaseBuilder(MAX_CARS);
+			builder.build(file);
+			DepthDatabase database = new DepthDatabase(file);
+			Check.equal("depth database entries", builder.numEntries(), database.size());
+			FastBoardGenerator generator = new FastBoardGenerator(DepthDatabase.SIZE, 3, 0, 4);
+			int bad = 0;
+			for(int i = 0; i < NUM_BOARDS; i++) {
+				Board board = generator.generate(1 + i % MAX_CARS).copy();
+				int depth = new EquivalenceClass(board).getDepthOfBoard(board);
+				if(depth < 0) {
+					// classes that can't be solved aren't kept
+					if(database.contains(board)) {
+						bad++;
+					}
+					continue;
+				}
+				List<Move> path = database.movesToNearestSolution(board);
+				if(database.getDepthOfBoard(board) != depth || path == null || path.size() != depth) {
+					bad++;
+					continue;
+				}
+				for(Move move : path) {
+					if(!board.move(move)) {
+						bad++;
+						break;
+					}
+				}
+				if(!board.isSolved()) {
+					bad++;
+				}
+			}
+			Check.equal("boards whose database depth or solution is wrong", 0, bad);
+			Board tooMany = generator.generate(MAX_CARS + 1);
+			Check.that("boards with more cars than were built aren't in the database", !database.contains(tooMany));
+		} finally {
+			file.delete();
+		}
+	}
+
+}
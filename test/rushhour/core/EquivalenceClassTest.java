@@ -0,0 +1,136 @@
+package rushhour.core;
+
+import rushhour.Check;
+import rushhour.io.BoardIO;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The compressed-sparse-row classes against the sizes and depths the original
+ * code gave, and against a plain BFS over every state; the disk-backed class
+ * against the in-memory one.
+ */
+public class EquivalenceClassTest {
+
+	// puzzle, class size, class depth, board depth, solved states
+	private static final String[] PUZZLES = {
+		"puzzles/for_table/1.txt",
+		"puzzles/for_table/2.txt",
+		"puzzles/for_table/3.txt",
+		"puzzles/for_table/4.txt",
+		"puzzles/for_table/5.txt",
+		"puzzles/for_table/8.txt",
+		"puzzles/for_table/9.txt",
+		"puzzles/for_table/49.txt",
+		"test/puzzles/wide_7x7.txt",
+		"test/puzzles/wide_8x8.txt",
+	};
+	private static final int[][] EXPECTED = {
+		{ 2334, 1, 1, 1133 },
+		{ 132, 3, 2, 22 },
+		{ 24, 3, 3, 6 },
+		{ 3186, 4, 4, 1170 },
+		{ 4095, 8, 5, 220 },
+		{ 2945, 8, 8, 221 },
+		{ 551, 9, 9, 12 },
+		{ 24132, 49, 49, 1023 },
+		{ 637, 14, 3, 126 },
+		{ 15824, 14, 2, 600 },
+	};
+
+	public static void run() throws Exception {
+		for(int i = 0; i < PUZZLES.length; i++) {
+			Board board = BoardIO.read(PUZZLES[i]);
+			EquivalenceClass graph = new EquivalenceClass(board);
+			Check.equal(PUZZLES[i] + " class size", EXPECTED[i][0], graph.size());
+			Check.equal(PUZZLES[i] + " class depth", EXPECTED[i][1], graph.maxDepth());
+			Check.equal(PUZZLES[i] + " board depth", EXPECTED[i][2], graph.getDepthOfBoard(board));
+			Check.equal(PUZZLES[i] + " solved states", EXPECTED[i][3], graph.numSolutions());
+			Check.equal(PUZZLES[i] + " farthest depth", graph.maxDepth(), graph.getDepthOfBoard(graph.getFarthest()));
+			againstBFS(PUZZLES[i], board, graph);
+		}
+		againstExternal("puzzles/for_table/9.txt");
+		againstExternal("test/puzzles/wide_7x7.txt");
+	}
+
+	/**
+	 * Every state's depth against a BFS out from the solved states, done
+	 * the simple way, with a map.
+	 */
+	private static void againstBFS(String puzzle, Board board, EquivalenceClass graph) {
+		CarLayout layout = board.getLayout();
+		int[] moves = new int[layout.maxMoves()];
+		// the class, then the solved states in it
+		Map<Long, Integer> depths = new HashMap<>();
+		ArrayDeque<Long> queue = new ArrayDeque<>();
+		long start = layout.encode(board);
+		depths.put(start, -2);
+		queue.add(start);
+		while(!queue.isEmpty()) {
+			long state = queue.poll();
+			int numMoves = layout.generateMoves(state, moves);
+			for(int i = 0; i < numMoves; i++) {
+				long neighbor = layout.apply(state, moves[i]);
+				if(depths.putIfAbsent(neighbor, -2) == null) {
+					queue.add(neighbor);
+				}
+			}
+		}
+		for(long state : depths.keySet()) {
+			if(layout.isSolved(state)) {
+				depths.put(state, 0);
+				queue.add(state);
+			}
+		}
+		while(!queue.isEmpty()) {
+			long state = queue.poll();
+			int numMoves = layout.generateMoves(state, moves);
+			for(int i = 0; i < numMoves; i++) {
+				long neighbor = layout.apply(state, moves[i]);
+				if(depths.get(neighbor) == -2) {
+					depths.put(neighbor, depths.get(state) + 1);
+					queue.add(neighbor);
+				}
+			}
+		}
+		int bad = 0;
+		for(Map.Entry<Long, Integer> entry : depths.entrySet()) {
+			Board b = layout.toBoard(entry.getKey());
+			int depth = graph.getDepthOfBoard(b);
+			if(depth != entry.getValue()) {
+				bad++;
+			} else if(depth > 0 && graph.getDepthOfBoard(graph.getOneBoardCloser(b)) != depth - 1) {
+				bad++;
+			}
+		}
+		Check.equal(puzzle + " states whose depth differs from BFS", 0, bad);
+	}
+
+	private static void againstExternal(String puzzle) throws Exception {
+		Board board = BoardIO.read(puzzle);
+		EquivalenceClass graph = new EquivalenceClass(board);
+		File dir = Files.createTempDirectory("rushhour-test").toFile();
+		ExternalEquivalenceClass external = new ExternalEquivalenceClass(board, dir);
+		try {
+			Check.equal(puzzle + " external class size", graph.size(), external.size());
+			Check.equal(puzzle + " external class depth", graph.maxDepth(), external.maxDepth());
+			Check.equal(puzzle + " external solved states", graph.numSolutions(), external.numSolutions());
+			Check.that(puzzle + " external hash", graph.hash() == external.hash());
+			int bad = 0;
+			for(long state : graph.states()) {
+				Board b = graph.getLayout().toBoard(state);
+				if(graph.getDepthOfBoard(b) != external.getDepthOfBoard(b)) {
+					bad++;
+				}
+			}
+			Check.equal(puzzle + " states whose external depth differs", 0, bad);
+		} finally {
+			external.release();
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package rushhour.core;
+
+import rushhour.Check;
+import rushhour.io.BoardIO;
+import rushhour.solving.BreadthFirstSearchSolver;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * A solution cache whose last record was torn by a writer that died: opening
+ * it drops the torn record, and records appended after that are read back.
+ */
+public class SolutionCacheTest {
+
+	private static final String[] PUZZLES = {
+		"puzzles/for_table/2.txt",
+		"puzzles/for_table/3.txt",
+		"puzzles/for_table/4.txt",
+		"puzzles/for_table/9.txt",
+	};
+
+	public static void run() throws Exception {
+		File file = File.createTempFile("rushhour-test", ".cache");
+		file.delete();
+		try {
+			SolutionCache cache = new SolutionCache(file);
+			put(cache, 0, 2);
+			cache.close();
+			long good = file.length();
+			// a length and half a record
+			try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.seek(good);
+				raf.writeInt(40);
+				raf.write(new byte[13]);
+			}
+			cache = new SolutionCache(file);
+			Check.equal("cached solutions after a torn record", 2, cache.size());
+			Check.equal("file length after a torn record", good, file.length());
+			put(cache, 2, PUZZLES.length);
+			cache.close();
+			cache = new SolutionCache(file);
+			Check.equal("cached solutions after appending past a torn record", PUZZLES.length, cache.size());
+			for(String puzzle : PUZZLES) {
+				Board board = BoardIO.read(puzzle);
+				List<Move> path = cache.get(board);
+				Check.that(puzzle + " has a cached solution", path != null);
+				if(path != null) {
+					for(Move move : path) {
+						board.move(move);
+					}
+					Check.that(puzzle + " cached solution solves it", board.isSolved());
+				}
+			}
+			cache.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void put(SolutionCache cache, int from, int to) {
+		for(int i = from; i < to; i++) {
+			Board board = BoardIO.read(PUZZLES[i]);
+			cache.put(board, new BreadthFirstSearchSolver().getSolution(board).path);
+		}
+	}
+
+}
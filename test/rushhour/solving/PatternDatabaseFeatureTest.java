@@ -0,0 +1,38 @@
+package rushhour.solving;
+
+import rushhour.Check;
+import rushhour.core.*;
+import rushhour.io.BoardIO;
+
+/**
+ * The pattern database never overestimates: its value for every solvable
+ * state of a few classes is at most the state's depth.
+ */
+public class PatternDatabaseFeatureTest {
+
+	private static final String[] PUZZLES = {
+		"puzzles/for_table/3.txt",
+		"puzzles/for_table/8.txt",
+		"puzzles/for_table/9.txt",
+		"puzzles/for_table/49.txt",
+		"test/puzzles/wide_7x7.txt",
+	};
+
+	public static void run() {
+		Feature pattern = new PatternDatabaseFeature();
+		Check.that("pattern database is admissible", pattern.isAdmissible());
+		for(String puzzle : PUZZLES) {
+			EquivalenceClass graph = new EquivalenceClass(BoardIO.read(puzzle));
+			int bad = 0;
+			for(long state : graph.states()) {
+				Board board = graph.getLayout().toBoard(state);
+				int depth = graph.getDepthOfBoard(board);
+				if(depth >= 0 && pattern.value(board) > depth) {
+					bad++;
+				}
+			}
+			Check.equal(puzzle + " states the pattern database overestimates", 0, bad);
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package rushhour.solving;
+
+import rushhour.Check;
+import rushhour.core.*;
+import rushhour.io.BoardIO;
+
+import java.util.List;
+
+/**
+ * The optimal solvers against the solution lengths the original code gave,
+ * each solution checked by playing it out on the board.
+ */
+public class SolverTest {
+
+	// puzzle, optimal solution length
+	private static final String[] PUZZLES = {
+		"puzzles/for_table/2.txt",
+		"puzzles/for_table/3.txt",
+		"puzzles/for_table/5.txt",
+		"puzzles/for_table/8.txt",
+		"puzzles/for_table/9.txt",
+		"puzzles/for_table/10.txt",
+		"puzzles/for_table/49.txt",
+		"test/puzzles/wide_7x7.txt",
+		"test/puzzles/wide_8x8.txt",
+	};
+	private static final int[] EXPECTED = { 2, 3, 5, 8, 9, 10, 49, 3, 2 };
+
+	public static void run() {
+		Heuristic blocking = new Heuristic(new Feature[] { new BlockingFeature() }, new double[] { 1 });
+		Heuristic pattern = new Heuristic(new Feature[] { new PatternDatabaseFeature() }, new double[] { 1 });
+		for(int i = 0; i < PUZZLES.length; i++) {
+			Board board = BoardIO.read(PUZZLES[i]);
+			check(PUZZLES[i] + " bfs", board, new BreadthFirstSearchSolver(), EXPECTED[i]);
+			check(PUZZLES[i] + " bidirectional", board, new BidirectionalSolver(), EXPECTED[i]);
+			check(PUZZLES[i] + " ida*", board, new IDAStarSolver(blocking.copy()), EXPECTED[i]);
+			check(PUZZLES[i] + " ida* with the pattern database", board, new IDAStarSolver(pattern.copy()), EXPECTED[i]);
+			check(PUZZLES[i] + " parallel a*", board, new ParallelAStarSolver(blocking.copy(), 3), EXPECTED[i]);
+		}
+	}
+
+	private static void check(String what, Board board, Solver solver, int expected) {
+		SolveResult result = solver.getSolution(board.copy());
+		Check.that(what + " solves it", result.status == SolveResult.Status.SOLVED);
+		if(result.status != SolveResult.Status.SOLVED) {
+			return;
+		}
+		List<Move> path = result.path;
+		Check.equal(what + " solution length", expected, path.size());
+		Board played = board.copy();
+		boolean legal = true;
+		for(Move move : path) {
+			legal &= played.move(move);
+		}
+		Check.that(what + " solution is legal and solves it", legal && played.isSolved());
+	}
+
+}